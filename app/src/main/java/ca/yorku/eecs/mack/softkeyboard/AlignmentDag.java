@@ -0,0 +1,374 @@
+package ca.yorku.eecs.mack.softkeyboard;
+
+import java.math.BigDecimal;
+import java.math.BigInteger;
+import java.math.MathContext;
+import java.util.Random;
+
+/**
+ * AlignmentDag - the graph of optimal alignment paths through an MSD 'D' matrix.
+ * <p>
+ *
+ * Every optimal alignment of the presented and transcribed text is a path from the bottom-right corner of the D matrix
+ * to the top-left corner. At each cell, the steps that lie on some optimal path are determined by local comparisons of
+ * D values (this is exactly the test used by <code>MSD.doAlignments</code> and <code>MSD2.findAlignments</code>). This
+ * class records those steps for every cell as a bitmask, and counts the paths with a single pass of dynamic
+ * programming. This gives the number of optimal alignments, and the sum and mean of their lengths, in O(nm) time and
+ * memory, no matter how many alignments exist.
+ * <p>
+ *
+ * The graph is held in primitive arrays indexed by <code>i * getColumns() + j</code>, where <code>i</code> indexes
+ * the presented text and <code>j</code> the transcribed text (as in <code>MSD2</code>'s D matrix). The bits of the
+ * mask are:
+ * <p>
+ *
+ * <pre>
+ *    CORRECT       = step to (i-1, j-1), matching elements
+ *    SUBSTITUTION  = step to (i-1, j-1), different elements
+ *    INSERTION     = step to (i, j-1)
+ *    DELETION      = step to (i-1, j)
+ *    TRANSPOSITION = step to (i-2, j-2)
+ * </pre>
+ * <p>
+ *
+ * The naming follows the explanation letters in <code>MSD2.Alignment</code> (c, x, i, d, t). A transposition
+ * contributes two letters ("tt") to the length of an alignment; all other steps contribute one.
+ * <p>
+ *
+ * Path counts are held as <code>double</code>s. For pathological pairs of long strings they can exceed the range of a
+ * <code>double</code>; the exact counts are then available as <code>BigInteger</code>s.
+ */
+public class AlignmentDag
+{
+	public static final int CORRECT = 1;
+	public static final int SUBSTITUTION = 2;
+	public static final int INSERTION = 4;
+	public static final int DELETION = 8;
+	public static final int TRANSPOSITION = 16;
+
+	final int rows, cols;
+	final byte[] moves; // bitmask of optimal steps out of each cell (toward the top-left corner)
+	final double[] counts; // number of optimal paths from the top-left corner to each cell
+	final double[] lengths; // sum of the lengths of those paths
+
+	/**
+	 * Build the optimal-path graph for a D matrix.
+	 *
+	 * @param d
+	 *            the D matrix, with <code>c.getPresentedSize() + 1</code> rows and
+	 *            <code>c.getTranscribedSize() + 1</code> columns
+	 * @param c
+	 *            the presented and transcribed data that the D matrix was computed from
+	 */
+	public AlignmentDag(int[][] d, MSD2.MSDCollection c)
+	{
+		this(flatten(d), d.length, d[0].length, c);
+	}
+
+	/**
+	 * Build the optimal-path graph for the last pair computed by a workspace.
+	 *
+	 * @param w
+	 *            the workspace holding the D matrix
+	 * @param c
+	 *            the presented and transcribed data that the D matrix was computed from
+	 */
+	public AlignmentDag(MSDWorkspace w, MSD2.MSDCollection c)
+	{
+		this(w.d, w.rows, w.cols, c);
+	}
+
+	private AlignmentDag(int[] d, int rowsArg, int colsArg, MSD2.MSDCollection c)
+	{
+		rows = rowsArg;
+		cols = colsArg;
+		moves = new byte[rows * cols];
+		counts = new double[rows * cols];
+		lengths = new double[rows * cols];
+
+		for (int i = 0; i < rows; ++i)
+			for (int j = 0; j < cols; ++j)
+				moves[i * cols + j] = (byte)moves(d, cols, i, j, c);
+		countPaths();
+	}
+
+	private static int[] flatten(int[][] d)
+	{
+		int cols = d[0].length;
+		int[] flat = new int[d.length * cols];
+		for (int i = 0; i < d.length; ++i)
+			System.arraycopy(d[i], 0, flat, i * cols, cols);
+		return flat;
+	}
+
+	/*
+	 * Return the bitmask of optimal steps out of cell (i, j) of a D matrix held row by row in d (with row stride cols).
+	 */
+	static int moves(int[] d, int cols, int i, int j, MSD2.MSDCollection c)
+	{
+		int cell = i * cols + j;
+		int mask = 0;
+		if (i > 0 && j > 0)
+		{
+			if (d[cell] == d[cell - cols - 1] && c.getItemDistance(i - 1, j - 1) == 0)
+				mask |= CORRECT;
+			if (d[cell] == d[cell - cols - 1] + 1)
+				mask |= SUBSTITUTION;
+		}
+		if (j > 0 && d[cell] == d[cell - 1] + 1)
+			mask |= INSERTION;
+		if (i > 0 && d[cell] == d[cell - cols] + 1)
+			mask |= DELETION;
+		if (i >= 2 && j >= 2 && d[cell] - d[cell - 2 * cols - 2] == c.getTransposedDistance(i - 1, j - 1))
+			mask |= TRANSPOSITION;
+		return mask;
+	}
+
+	/*
+	 * Count the optimal paths into each cell, and the sum of their lengths, from the top-left corner (one empty
+	 * path). Cells are visited in row-major order, so every predecessor is done before the cells it leads to.
+	 */
+	private void countPaths()
+	{
+		counts[0] = 1.0;
+		lengths[0] = 0.0;
+		for (int i = 0; i < rows; ++i)
+			for (int j = 0; j < cols; ++j)
+			{
+				int cell = i * cols + j;
+				int mask = moves[cell];
+				if (mask == 0)
+					continue;
+
+				double n = 0.0;
+				double length = 0.0;
+				for (int step = CORRECT; step <= TRANSPOSITION; step <<= 1)
+					if ((mask & step) != 0)
+					{
+						int from = predecessor(cell, step);
+						n += counts[from];
+						length += lengths[from] + counts[from] * stepLength(step);
+					}
+				counts[cell] = n;
+				lengths[cell] = length;
+			}
+	}
+
+	/**
+	 * Return the cell reached by taking a step (toward the top-left corner) from a cell.
+	 */
+	public int predecessor(int cell, int step)
+	{
+		return predecessor(cell, step, cols);
+	}
+
+	/*
+	 * The same, for a matrix with any number of columns.
+	 */
+	static int predecessor(int cell, int step, int cols)
+	{
+		switch (step)
+		{
+			case CORRECT:
+			case SUBSTITUTION:
+				return cell - cols - 1;
+			case INSERTION:
+				return cell - 1;
+			case DELETION:
+				return cell - cols;
+			default: // TRANSPOSITION
+				return cell - 2 * cols - 2;
+		}
+	}
+
+	/**
+	 * Return the number of explanation letters a step contributes to an alignment.
+	 */
+	public static int stepLength(int step)
+	{
+		return step == TRANSPOSITION ? 2 : 1;
+	}
+
+	/*
+	 * Write the explanation letters for a step into a buffer that is being filled backward, ending just before pos.
+	 * Return the position of the first letter written.
+	 */
+	static int explain(int step, char[] e, int pos)
+	{
+		switch (step)
+		{
+			case CORRECT:
+				e[--pos] = 'c';
+				break;
+			case SUBSTITUTION:
+				e[--pos] = 'x';
+				break;
+			case INSERTION:
+				e[--pos] = 'i';
+				break;
+			case DELETION:
+				e[--pos] = 'd';
+				break;
+			default: // TRANSPOSITION
+				e[--pos] = 't';
+				e[--pos] = 't';
+		}
+		return pos;
+	}
+
+	/**
+	 * Return the number of rows in the graph (the presented size + 1).
+	 */
+	public int getRows()
+	{
+		return rows;
+	}
+
+	/**
+	 * Return the number of columns in the graph (the transcribed size + 1).
+	 */
+	public int getColumns()
+	{
+		return cols;
+	}
+
+	/**
+	 * Return the bitmask of optimal steps out of cell (i, j).
+	 */
+	public int getMoves(int i, int j)
+	{
+		return moves[i * cols + j];
+	}
+
+	/**
+	 * Return the number of optimal paths between the top-left corner and cell (i, j).
+	 */
+	public double getPathCount(int i, int j)
+	{
+		return counts[i * cols + j];
+	}
+
+	/**
+	 * Return the number of optimal alignments. This is <code>Infinity</code> if the count exceeds the range of a
+	 * <code>double</code> (see {@link #getExactAlignmentCount}).
+	 */
+	public double getAlignmentCount()
+	{
+		return counts[counts.length - 1];
+	}
+
+	/**
+	 * Return the sum of the lengths of all the optimal alignments.
+	 */
+	public double getTotalAlignmentLength()
+	{
+		return lengths[lengths.length - 1];
+	}
+
+	/**
+	 * Return the mean length of the optimal alignments. This is the denominator of the "new" MSD error rate (MacKenzie
+	 * and Soukoreff, <i>NordiCHI 2002</i>).
+	 */
+	public double getMeanAlignmentLength()
+	{
+		double n = getAlignmentCount();
+		double length = getTotalAlignmentLength();
+		if (!Double.isInfinite(n) && !Double.isInfinite(length))
+			return length / n;
+
+		BigInteger[] exact = countExactly();
+		return new BigDecimal(exact[1]).divide(new BigDecimal(exact[0]), MathContext.DECIMAL64).doubleValue();
+	}
+
+	/**
+	 * Return the exact number of optimal alignments.
+	 */
+	public BigInteger getExactAlignmentCount()
+	{
+		return countExactly()[0];
+	}
+
+	/**
+	 * Return the exact sum of the lengths of the optimal alignments.
+	 */
+	public BigInteger getExactTotalAlignmentLength()
+	{
+		return countExactly()[1];
+	}
+
+	/**
+	 * Draw one optimal alignment uniformly at random, and return its explanation string (using the letters c, x, i, d,
+	 * and t, as in <code>MSD2.Alignment</code>).
+	 * <p>
+	 *
+	 * The path is built backward from the bottom-right corner. At each cell, a step is chosen with probability
+	 * proportional to the number of optimal paths reaching the cell it leads to, so every complete path is equally
+	 * likely. Each sample costs O(n+m). If the path counts have overflowed, steps with an infinite count are chosen
+	 * among uniformly (a close approximation, since the other steps carry a negligible share of the paths).
+	 *
+	 * @param random
+	 *            the source of randomness (seed it for reproducible samples)
+	 */
+	public String sampleExplanation(Random random)
+	{
+		char[] e = new char[rows + cols];
+		int pos = e.length;
+		int cell = rows * cols - 1;
+		while (cell != 0)
+		{
+			int mask = moves[cell];
+			boolean overflow = false;
+			double total = 0.0;
+			for (int step = CORRECT; step <= TRANSPOSITION; step <<= 1)
+				if ((mask & step) != 0)
+				{
+					double n = counts[predecessor(cell, step)];
+					overflow |= Double.isInfinite(n);
+					total += n;
+				}
+
+			double target = random.nextDouble() * (overflow ? Integer.bitCount(mask) : total);
+			int chosen = 0;
+			for (int step = CORRECT; step <= TRANSPOSITION; step <<= 1)
+				if ((mask & step) != 0)
+				{
+					double n = counts[predecessor(cell, step)];
+					double weight = overflow ? (Double.isInfinite(n) ? 1.0 : 0.0) : n;
+					if (weight == 0.0)
+						continue;
+					chosen = step; // the last step with weight is chosen if rounding leaves target >= 0
+					target -= weight;
+					if (target < 0.0)
+						break;
+				}
+
+			pos = explain(chosen, e, pos);
+			cell = predecessor(cell, chosen);
+		}
+		return new String(e, pos, e.length - pos);
+	}
+
+	// the same pass as countPaths, but with arbitrary precision (only used when the doubles overflow)
+	private BigInteger[] countExactly()
+	{
+		BigInteger[] n = new BigInteger[rows * cols];
+		BigInteger[] length = new BigInteger[rows * cols];
+		n[0] = BigInteger.ONE;
+		length[0] = BigInteger.ZERO;
+		for (int cell = 1; cell < n.length; ++cell)
+		{
+			n[cell] = BigInteger.ZERO;
+			length[cell] = BigInteger.ZERO;
+			int mask = moves[cell];
+			for (int step = CORRECT; step <= TRANSPOSITION; step <<= 1)
+				if ((mask & step) != 0)
+				{
+					int from = predecessor(cell, step);
+					n[cell] = n[cell].add(n[from]);
+					length[cell] = length[cell].add(length[from]).add(n[from].multiply(BigInteger.valueOf(stepLength(
+							step))));
+				}
+		}
+		return new BigInteger[] {n[n.length - 1], length[length.length - 1]};
+	}
+}
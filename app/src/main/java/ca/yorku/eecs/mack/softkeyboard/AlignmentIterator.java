@@ -0,0 +1,136 @@
+package ca.yorku.eecs.mack.softkeyboard;
+
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+
+/**
+ * AlignmentIterator - produces the optimal alignments of an MSD matrix one at a time, on demand.
+ * <p>
+ *
+ * The alignments are found by a depth-first traversal of an <code>AlignmentDag</code>, from the bottom-right corner of
+ * the D matrix to the top-left corner. The traversal uses an explicit stack of primitive arrays (cell, steps not yet
+ * tried, and position in the explanation buffer) and a single explanation buffer that is shared by all alignments, so
+ * memory is O(n+m) no matter how many alignments exist. Since alignments are only produced as they are asked for, a
+ * caller that needs just the first few stops paying once it stops calling <code>next()</code>.
+ * <p>
+ *
+ * The explanation buffer holds the letters used by <code>MSD2.Alignment</code> (c = correct, i = insertion, d =
+ * deletion, x = substitution, t = transposition). Subclasses turn the letters of each complete alignment into the
+ * object returned by <code>next()</code>; see <code>MSD.alignmentIterator()</code> and
+ * <code>MSD2.alignmentIterator()</code>.
+ * <p>
+ *
+ * At a branch, steps are tried in the order correct, substitution, insertion, deletion, transposition.
+ *
+ * @param <T>
+ *            the type of the objects representing an alignment
+ */
+public abstract class AlignmentIterator<T> implements Iterator<T>
+{
+	private final AlignmentDag dag;
+	private final char[] explanation; // filled from the end, since the traversal runs backward
+	private final int[] cell; // the traversal stack...
+	private final int[] remaining;
+	private final int[] position;
+	private int depth;
+	private boolean empty; // both texts are empty: there is one (empty) alignment
+	private T next;
+
+	protected AlignmentIterator(AlignmentDag dagArg)
+	{
+		dag = dagArg;
+		int size = dag.getRows() + dag.getColumns();
+		explanation = new char[size];
+		cell = new int[size];
+		remaining = new int[size];
+		position = new int[size];
+
+		// start in the bottom-right corner
+		int start = dag.getRows() * dag.getColumns() - 1;
+		if (start == 0)
+		{
+			empty = true;
+			depth = -1;
+		} else
+		{
+			depth = 0;
+			cell[0] = start;
+			remaining[0] = dag.moves[start];
+			position[0] = size;
+		}
+	}
+
+	/**
+	 * Create the object for one alignment.
+	 *
+	 * @param explanationArg
+	 *            a buffer holding the explanation letters (reused, so it must be copied if kept)
+	 * @param from
+	 *            the index of the first letter
+	 * @param to
+	 *            the index after the last letter
+	 */
+	protected abstract T create(char[] explanationArg, int from, int to);
+
+	/*
+	 * Continue the traversal until the top-left corner is reached (returning the alignment) or the stack is empty
+	 * (returning null).
+	 */
+	private T advance()
+	{
+		if (empty)
+		{
+			empty = false;
+			return create(explanation, explanation.length, explanation.length);
+		}
+
+		while (depth >= 0)
+		{
+			int mask = remaining[depth];
+			if (mask == 0)
+			{
+				--depth; // all steps out of this cell have been tried
+				continue;
+			}
+
+			int step = mask & -mask;
+			remaining[depth] = mask & ~step;
+
+			int pos = AlignmentDag.explain(step, explanation, position[depth]);
+
+			int from = dag.predecessor(cell[depth], step);
+			if (from == 0)
+				return create(explanation, pos, explanation.length);
+
+			++depth;
+			cell[depth] = from;
+			remaining[depth] = dag.moves[from];
+			position[depth] = pos;
+		}
+		return null;
+	}
+
+	@Override
+	public boolean hasNext()
+	{
+		if (next == null)
+			next = advance();
+		return next != null;
+	}
+
+	@Override
+	public T next()
+	{
+		if (!hasNext())
+			throw new NoSuchElementException();
+		T result = next;
+		next = null;
+		return result;
+	}
+
+	@Override
+	public void remove()
+	{
+		throw new UnsupportedOperationException();
+	}
+}
@@ -0,0 +1,231 @@
+package ca.yorku.eecs.mack.softkeyboard;
+
+import java.io.BufferedReader;
+import java.io.FileReader;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Locale;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+
+/**
+ * BatchScorer - computes the MSD statistics of many presented/transcribed pairs in parallel.
+ * <p>
+ *
+ * The pairs are split recursively into fork/join tasks, so idle workers steal the remaining work. Each worker computes
+ * in its own <code>MSDWorkspace</code> (<code>MSDWorkspace.get()</code>), so after the first few pairs no D matrices
+ * are allocated. The results are immutable <code>MSDResult</code> objects, returned in the order of the input. With an
+ * <code>MSDCache</code>, repeated pairs are computed only once.
+ * <p>
+ *
+ * Typical use:
+ *
+ * <pre>
+ *     BatchScorer scorer = new BatchScorer();
+ *     List&lt;MSDResult&gt; results = scorer.score(pairs);
+ * </pre>
+ *
+ * The scorer uses a <code>ForkJoinPool</code> (Android API 21 or later), and is meant for the analysis of data. Run
+ * from the command line with a list of sd1 files, the statistics of every phrase are printed as comma-separated values.
+ */
+public class BatchScorer
+{
+	// a task with at most this many pairs scores them itself
+	private static final int PAIRS_PER_TASK = 32;
+
+	private static ForkJoinPool defaultPool;
+
+	private final ForkJoinPool pool;
+	private final boolean transpositions;
+	private final MSDCache cache; // null = no cache
+
+	/**
+	 * Create a scorer that runs on a shared pool with one worker per core, without transpositions (as in
+	 * <code>MSD</code>).
+	 */
+	public BatchScorer()
+	{
+		this(getDefaultPool(), false);
+	}
+
+	/**
+	 * Create a scorer that runs on the given pool.
+	 *
+	 * @param poolArg
+	 *            the pool (its parallelism sets the number of workers)
+	 * @param transpositionsArg
+	 *            if true, the transposition of two neighbouring characters is treated as a single edit (as in
+	 *            <code>MSD2</code>)
+	 */
+	public BatchScorer(ForkJoinPool poolArg, boolean transpositionsArg)
+	{
+		this(poolArg, transpositionsArg, null);
+	}
+
+	/**
+	 * Create a scorer that runs on the given pool, and looks up (and adds) results in a cache, so repeated pairs are
+	 * computed only once.
+	 */
+	public BatchScorer(ForkJoinPool poolArg, boolean transpositionsArg, MSDCache cacheArg)
+	{
+		pool = poolArg;
+		transpositions = transpositionsArg;
+		cache = cacheArg;
+	}
+
+	private static synchronized ForkJoinPool getDefaultPool()
+	{
+		if (defaultPool == null)
+			defaultPool = new ForkJoinPool();
+		return defaultPool;
+	}
+
+	/**
+	 * Score a list of pairs (<code>s1</code> = presented, <code>s2</code> = transcribed).
+	 *
+	 * @return the results, in the order of the pairs
+	 */
+	public List<MSDResult> score(List<StringPair> pairs)
+	{
+		String[] presented = new String[pairs.size()];
+		String[] transcribed = new String[pairs.size()];
+		for (int k = 0; k < presented.length; ++k)
+		{
+			presented[k] = pairs.get(k).s1;
+			transcribed[k] = pairs.get(k).s2;
+		}
+		return Arrays.asList(score(presented, transcribed));
+	}
+
+	/**
+	 * Score the pairs (presented[k], transcribed[k]).
+	 *
+	 * @return the results, in the order of the pairs
+	 */
+	public MSDResult[] score(String[] presented, String[] transcribed)
+	{
+		if (presented.length != transcribed.length)
+			throw new IllegalArgumentException("presented and transcribed differ in length");
+		MSDResult[] results = new MSDResult[presented.length];
+		pool.invoke(new ScoreTask(presented, transcribed, results, 0, results.length));
+		return results;
+	}
+
+	/**
+	 * Score one pair in the given workspace.
+	 */
+	public static MSDResult score(String presented, String transcribed, boolean transpositions, MSDWorkspace w)
+	{
+		int msd = w.compute(presented, transcribed, transpositions);
+		return new MSDResult(presented, transcribed, msd, w.getAlignmentCount(), w.getMeanAlignmentLength());
+	}
+
+	private final class ScoreTask extends RecursiveAction
+	{
+		private static final long serialVersionUID = 1L;
+
+		private final String[] presented, transcribed;
+		private final MSDResult[] results;
+		private final int from, to;
+
+		ScoreTask(String[] presentedArg, String[] transcribedArg, MSDResult[] resultsArg, int fromArg, int toArg)
+		{
+			presented = presentedArg;
+			transcribed = transcribedArg;
+			results = resultsArg;
+			from = fromArg;
+			to = toArg;
+		}
+
+		@Override
+		protected void compute()
+		{
+			if (to - from <= PAIRS_PER_TASK)
+			{
+				MSDWorkspace w = MSDWorkspace.get();
+				for (int k = from; k < to; ++k)
+					results[k] = cache != null ? cache.get(presented[k], transcribed[k], transpositions) : score(
+							presented[k], transcribed[k], transpositions, w);
+				return;
+			}
+			int middle = (from + to) >>> 1;
+			invokeAll(new ScoreTask(presented, transcribed, results, from, middle), new ScoreTask(presented,
+					transcribed, results, middle, to));
+		}
+	}
+
+	/**
+	 * Read the presented/transcribed pairs from an sd1 file. Each sd1 entry starts with the presented and transcribed
+	 * phrases and ends with a line of dashes.
+	 */
+	public static ArrayList<StringPair> readPhrases(String file) throws IOException
+	{
+		ArrayList<StringPair> pairs = new ArrayList<StringPair>();
+		BufferedReader in = new BufferedReader(new FileReader(file));
+		try
+		{
+			StringPair pair = new StringPair();
+			int lineInEntry = 0;
+			String line;
+			while ((line = in.readLine()) != null)
+			{
+				if (line.startsWith("-----"))
+				{
+					if (lineInEntry >= 2)
+						pairs.add(pair);
+					pair = new StringPair();
+					lineInEntry = 0;
+					continue;
+				}
+				if (lineInEntry == 0)
+					pair.s1 = line;
+				else if (lineInEntry == 1)
+					pair.s2 = line;
+				++lineInEntry;
+			}
+		} finally
+		{
+			in.close();
+		}
+		return pairs;
+	}
+
+	// =======================================================================================================
+
+	public static void main(String[] args) throws IOException
+	{
+		if (args.length == 0)
+		{
+			System.out.println("usage: java BatchScorer file.sd1 ...");
+			System.exit(1);
+		}
+
+		ArrayList<StringPair> pairs = new ArrayList<StringPair>();
+		ArrayList<String> files = new ArrayList<String>();
+		for (String file : args)
+			for (StringPair pair : readPhrases(file))
+			{
+				pairs.add(pair);
+				files.add(file);
+			}
+
+		long start = System.nanoTime();
+		MSDCache cache = new MSDCache(Math.max(1, pairs.size()));
+		List<MSDResult> results = new BatchScorer(getDefaultPool(), false, cache).score(pairs);
+		long elapsed = System.nanoTime() - start;
+
+		System.out.println("File,Presented,Transcribed,MSD,Alignments,MeanAlignmentLength,ErrorRate(%),"
+				+ "ErrorRateNew(%)");
+		for (int k = 0; k < results.size(); ++k)
+		{
+			MSDResult r = results.get(k);
+			System.out.printf(Locale.CANADA, "%s,%s,%s,%d,%.0f,%f,%f,%f\n", files.get(k), r.getPresented(),
+					r.getTranscribed(), r.getMSD(), r.getAlignmentCount(), r.getMeanAlignmentLength(),
+					r.getErrorRate(), r.getErrorRateNew());
+		}
+		System.err.printf(Locale.CANADA, "%d phrases in %.1f ms\n", results.size(), elapsed / 1e6);
+		System.err.println(cache);
+	}
+}
@@ -0,0 +1,288 @@
+package ca.yorku.eecs.mack.softkeyboard;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Locale;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+/**
+ * ErrorMatrix - a character confusion matrix, accumulated over the optimal alignments of many phrase pairs.
+ * <p>
+ *
+ * For each presented/transcribed pair, every optimal alignment contributes its correct characters, substitutions,
+ * insertions, and deletions, weighted by 1 / (the number of optimal alignments). So each pair adds exactly one
+ * alignment's worth of counts, spread over its alignments in proportion to how many of them contain each step. The
+ * alignments are never enumerated. The share of the alignments using a step from cell a to cell b of the MSD matrix
+ * is
+ *
+ * <pre>
+ *     (paths from the bottom-right corner to a) x (paths from b to the top-left corner) / (all paths)
+ * </pre>
+ *
+ * The second factor is the path count held by <code>AlignmentDag</code>; the first (as a fraction of all paths) is
+ * found with one backward pass. The cost per pair is O(nm), as for the MSD itself.
+ * <p>
+ *
+ * The matrix is indexed by character code: rows are presented characters, columns transcribed characters. Codes 0-127
+ * (ASCII) have their own row and column, and other characters share the row and column {@link #OTHER}. The
+ * missing character of an insertion or deletion is {@link #GAP} (as in <code>MSD2</code>). So:
+ *
+ * <pre>
+ *     get(p, p)    = p entered correctly
+ *     get(p, t)    = p entered as t (substitution)
+ *     get(GAP, t)  = t inserted
+ *     get(p, GAP)  = p deleted (omitted)
+ * </pre>
+ *
+ * A transposition (with <code>MSD2</code>'s transposition option) is counted in {@link #getTranspositions()}.
+ * <p>
+ *
+ * Matrices built by separate workers can be combined with {@link #merge}. Run from the command line with a list of sd1
+ * files, the matrix for all the phrases in the files is printed (as comma-separated values).
+ */
+public class ErrorMatrix
+{
+	public static final int OTHER = 128;
+	public static final int GAP = MSD2.GAP;
+	public static final int SIZE = 130;
+	private static final int GAP_INDEX = 129;
+
+	private final double[] m = new double[SIZE * SIZE];
+	private double transpositions;
+	private int pairs;
+
+	/**
+	 * Return the row or column of the matrix for a character code (or GAP).
+	 */
+	public static int index(int c)
+	{
+		if (c < 0)
+			return GAP_INDEX;
+		return c < OTHER ? c : OTHER;
+	}
+
+	/**
+	 * Add the alignments of a phrase pair (without transpositions).
+	 */
+	public void add(String presented, String transcribed)
+	{
+		add(new MSD2.TwoStringCollection(presented, transcribed));
+	}
+
+	/**
+	 * Add the alignments of the presented and transcribed characters in a collection.
+	 */
+	public void add(MSD2.TokenCollection c)
+	{
+		MSDWorkspace w = MSDWorkspace.get();
+		w.compute(c);
+		add(new AlignmentDag(w, c), c);
+	}
+
+	/**
+	 * Add the alignments of a phrase pair, given its optimal-path graph.
+	 */
+	public void add(AlignmentDag dag, MSD2.TokenCollection c)
+	{
+		int cols = dag.cols;
+		double[] counts = dag.counts;
+
+		/*
+		 * share[cell] = the fraction of all optimal paths that pass through the cell. Cells are visited in reverse
+		 * row-major order, so a cell's share is complete before it is passed on to the cells its steps lead to.
+		 */
+		double[] share = new double[counts.length];
+		share[share.length - 1] = 1.0;
+		for (int cell = share.length - 1; cell > 0; --cell)
+		{
+			if (share[cell] == 0.0)
+				continue;
+
+			int mask = dag.moves[cell];
+			int i = cell / cols;
+			int j = cell % cols;
+
+			// the fraction of the paths into this cell that take each step
+			boolean overflow = Double.isInfinite(counts[cell]);
+			int infinite = 0;
+			if (overflow)
+				for (int step = AlignmentDag.CORRECT; step <= AlignmentDag.TRANSPOSITION; step <<= 1)
+					if ((mask & step) != 0 && Double.isInfinite(counts[dag.predecessor(cell, step)]))
+						++infinite;
+
+			for (int step = AlignmentDag.CORRECT; step <= AlignmentDag.TRANSPOSITION; step <<= 1)
+				if ((mask & step) != 0)
+				{
+					int from = dag.predecessor(cell, step);
+					double fraction;
+					if (overflow) // as in AlignmentDag.sampleExplanation
+						fraction = Double.isInfinite(counts[from]) ? 1.0 / infinite : 0.0;
+					else
+						fraction = counts[from] / counts[cell];
+					double weight = share[cell] * fraction;
+					share[from] += weight;
+					record(step, i, j, weight, c);
+				}
+		}
+		++pairs;
+	}
+
+	private void record(int step, int i, int j, double weight, MSD2.TokenCollection c)
+	{
+		switch (step)
+		{
+			case AlignmentDag.CORRECT:
+			case AlignmentDag.SUBSTITUTION:
+				m[index(c.getPresentedToken(i - 1)) * SIZE + index(c.getTranscribedToken(j - 1))] += weight;
+				break;
+			case AlignmentDag.INSERTION:
+				m[GAP_INDEX * SIZE + index(c.getTranscribedToken(j - 1))] += weight;
+				break;
+			case AlignmentDag.DELETION:
+				m[index(c.getPresentedToken(i - 1)) * SIZE + GAP_INDEX] += weight;
+				break;
+			default: // TRANSPOSITION
+				transpositions += weight;
+		}
+	}
+
+	/**
+	 * Add the counts of another matrix to this one (e.g., to combine the work of parallel workers).
+	 */
+	public void merge(ErrorMatrix other)
+	{
+		for (int k = 0; k < m.length; ++k)
+			m[k] += other.m[k];
+		transpositions += other.transpositions;
+		pairs += other.pairs;
+	}
+
+	/**
+	 * Return the (weighted) number of times the presented character p was entered as the transcribed character t. Use
+	 * {@link #GAP} for p to get insertions of t, or for t to get deletions of p.
+	 */
+	public double get(int p, int t)
+	{
+		return m[index(p) * SIZE + index(t)];
+	}
+
+	/**
+	 * Return the (weighted) number of times the presented character p was entered as some other character.
+	 */
+	public double getSubstitutions(int p)
+	{
+		int row = index(p) * SIZE;
+		double n = 0.0;
+		for (int t = 0; t < GAP_INDEX; ++t)
+			if (t != index(p))
+				n += m[row + t];
+		return n;
+	}
+
+	/**
+	 * Return the (weighted) number of times the character t was inserted.
+	 */
+	public double getInsertions(int t)
+	{
+		return m[GAP_INDEX * SIZE + index(t)];
+	}
+
+	/**
+	 * Return the (weighted) number of times the presented character p was deleted.
+	 */
+	public double getDeletions(int p)
+	{
+		return m[index(p) * SIZE + GAP_INDEX];
+	}
+
+	/**
+	 * Return the (weighted) number of transpositions.
+	 */
+	public double getTranspositions()
+	{
+		return transpositions;
+	}
+
+	/**
+	 * Return the number of phrase pairs added.
+	 */
+	public int getPairCount()
+	{
+		return pairs;
+	}
+
+	/**
+	 * Return the non-zero cells of the matrix as comma-separated values (presented, transcribed, count), with "-" for
+	 * GAP and "?" for OTHER.
+	 */
+	public String toCSV()
+	{
+		StringBuilder sb = new StringBuilder("Presented,Transcribed,Count\n");
+		for (int p = 0; p < SIZE; ++p)
+			for (int t = 0; t < SIZE; ++t)
+				if (m[p * SIZE + t] != 0.0)
+					sb.append(String.format(Locale.CANADA, "%s,%s,%.4f\n", label(p), label(t), m[p * SIZE + t]));
+		return sb.toString();
+	}
+
+	private static String label(int k)
+	{
+		if (k == GAP_INDEX)
+			return "-";
+		if (k == OTHER)
+			return "?";
+		if (k == ' ')
+			return "SPACE";
+		if (k == ',')
+			return "COMMA";
+		return MSD2.charString((char)k);
+	}
+
+	// =======================================================================================================
+
+	/*
+	 * Build the matrix for all the phrases in the sd1 files given on the command line, one file per worker, and print
+	 * it. Each sd1 entry starts with the presented and transcribed phrases and ends with a line of dashes.
+	 */
+	public static void main(String[] args) throws IOException, InterruptedException, ExecutionException
+	{
+		if (args.length == 0)
+		{
+			System.out.println("usage: java ErrorMatrix file.sd1 ...");
+			System.exit(1);
+		}
+
+		ExecutorService pool = Executors.newFixedThreadPool(Runtime.getRuntime().availableProcessors());
+		ArrayList<Future<ErrorMatrix>> parts = new ArrayList<Future<ErrorMatrix>>();
+		for (final String file : args)
+			parts.add(pool.submit(new Callable<ErrorMatrix>()
+			{
+				@Override
+				public ErrorMatrix call() throws IOException
+				{
+					return readSd1(file);
+				}
+			}));
+		pool.shutdown();
+
+		ErrorMatrix total = new ErrorMatrix();
+		for (Future<ErrorMatrix> part : parts)
+			total.merge(part.get());
+
+		System.out.print(total.toCSV());
+		System.out.printf(Locale.CANADA, "Phrases,%d\nTranspositions,%.4f\n", total.getPairCount(),
+				total.getTranspositions());
+	}
+
+	private static ErrorMatrix readSd1(String file) throws IOException
+	{
+		ErrorMatrix em = new ErrorMatrix();
+		for (StringPair pair : BatchScorer.readPhrases(file))
+			em.add(pair.s1, pair.s2);
+		return em;
+	}
+}
@@ -0,0 +1,162 @@
+package ca.yorku.eecs.mack.softkeyboard;
+
+import android.os.Process;
+import android.os.SystemClock;
+import android.os.Vibrator;
+
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * HapticsScheduler - vibrotactile feedback for key presses, on a background thread.
+ * <p>
+ *
+ * <code>Vibrator.vibrate</code> is a call to a system service, and it can take milliseconds when the service is busy.
+ * Here, the UI thread only posts a request (the type of the key pressed) to a single-slot mailbox and returns; a
+ * low-priority thread takes the request and vibrates. Posting never blocks or allocates.
+ * <p>
+ *
+ * Requests are coalesced: if a request is posted before the thread has taken the previous one, the newer replaces it
+ * (counted as coalesced). A pulse that would start while the previous pulse is still playing is dropped (counted as
+ * dropped), so fast typing does not queue up vibrations that arrive late. Each key type (<code>KeyboardEvent.TYPE_*</code>)
+ * has its own pattern, as for <code>Vibrator.vibrate(long[], int)</code>: off and on times, in ms.
+ */
+public class HapticsScheduler implements Runnable
+{
+	private static final int EMPTY = Integer.MIN_VALUE; // no request in the mailbox
+	private static final int TYPES = KeyboardEvent.TYPE_BACKSPACE - KeyboardEvent.TYPE_UNDEFINED + 1;
+
+	private final Vibrator vibrator;
+	private final long[][] patterns = new long[TYPES][];
+	private final long[] durations = new long[TYPES];
+	private final AtomicInteger mailbox = new AtomicInteger(EMPTY);
+	private final AtomicLong requested = new AtomicLong();
+	private final AtomicLong delivered = new AtomicLong();
+	private final AtomicLong coalesced = new AtomicLong();
+	private final AtomicLong dropped = new AtomicLong();
+	private volatile boolean running;
+	private Thread thread;
+
+	public HapticsScheduler(Vibrator vibratorArg)
+	{
+		vibrator = vibratorArg;
+		long[] pulse = { 0, 10 };
+		for (int type = KeyboardEvent.TYPE_UNDEFINED; type <= KeyboardEvent.TYPE_BACKSPACE; ++type)
+			setPattern(type, pulse);
+		setPattern(KeyboardEvent.TYPE_SPACE, new long[] { 0, 15 });
+		setPattern(KeyboardEvent.TYPE_ENTER, new long[] { 0, 25 });
+		setPattern(KeyboardEvent.TYPE_BACKSPACE, new long[] { 0, 10, 40, 10 });
+	}
+
+	/**
+	 * Set the pattern for a key type (off and on times in ms, starting with an off time).
+	 */
+	public void setPattern(int type, long[] pattern)
+	{
+		long duration = 0;
+		for (long t : pattern)
+			duration += t;
+		patterns[type - KeyboardEvent.TYPE_UNDEFINED] = pattern.clone();
+		durations[type - KeyboardEvent.TYPE_UNDEFINED] = duration;
+	}
+
+	/**
+	 * Start the haptics thread.
+	 */
+	public synchronized void start()
+	{
+		if (thread != null)
+			return;
+		running = true;
+		thread = new Thread(this, "HapticsScheduler");
+		thread.setDaemon(true);
+		thread.start();
+	}
+
+	/**
+	 * Stop the haptics thread (it may be called more than once).
+	 */
+	public synchronized void shutdown()
+	{
+		if (thread == null)
+			return;
+		running = false;
+		LockSupport.unpark(thread);
+		thread = null;
+	}
+
+	/**
+	 * Request the pulse for a key type. This never blocks; it may be called on the UI thread.
+	 */
+	public void request(int type)
+	{
+		if (type < KeyboardEvent.TYPE_UNDEFINED || type > KeyboardEvent.TYPE_BACKSPACE)
+			type = KeyboardEvent.TYPE_UNDEFINED;
+		requested.incrementAndGet();
+		if (mailbox.getAndSet(type) != EMPTY)
+			coalesced.incrementAndGet();
+		Thread t = thread;
+		if (t != null)
+			LockSupport.unpark(t);
+	}
+
+	@Override
+	public void run()
+	{
+		Process.setThreadPriority(Process.THREAD_PRIORITY_BACKGROUND);
+		long busyUntil = 0; // uptime (ms) when the current pulse ends
+		while (running)
+		{
+			int type = mailbox.getAndSet(EMPTY);
+			if (type == EMPTY)
+			{
+				LockSupport.park(this);
+				continue;
+			}
+
+			long now = SystemClock.uptimeMillis();
+			if (now < busyUntil)
+			{
+				dropped.incrementAndGet();
+				continue;
+			}
+			int k = type - KeyboardEvent.TYPE_UNDEFINED;
+			vibrator.vibrate(patterns[k], -1);
+			busyUntil = now + durations[k];
+			delivered.incrementAndGet();
+		}
+	}
+
+	/**
+	 * Return the number of pulses requested.
+	 */
+	public long getRequestedCount()
+	{
+		return requested.get();
+	}
+
+	/**
+	 * Return the number of pulses played.
+	 */
+	public long getDeliveredCount()
+	{
+		return delivered.get();
+	}
+
+	/**
+	 * Return the number of requests replaced by a newer request before they were taken.
+	 */
+	public long getCoalescedCount()
+	{
+		return coalesced.get();
+	}
+
+	/**
+	 * Return the number of pulses dropped because the previous pulse was still playing.
+	 */
+	public long getDroppedCount()
+	{
+		return dropped.get();
+	}
+}
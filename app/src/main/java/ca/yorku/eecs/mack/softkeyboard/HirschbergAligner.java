@@ -0,0 +1,416 @@
+package ca.yorku.eecs.mack.softkeyboard;
+
+import java.io.BufferedReader;
+import java.io.FileReader;
+import java.io.IOException;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.Random;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+
+/**
+ * HirschbergAligner - the MSD and one optimal alignment of long texts, in linear space.
+ * <p>
+ *
+ * <code>MSD</code> and <code>MSD2</code> hold the whole (n+1) x (m+1) D matrix and find every optimal alignment. For
+ * paragraph-length transcription (thousands of characters) neither is practical. This class finds the MSD and a single
+ * optimal alignment with Hirschberg's divide-and-conquer algorithm (Hirschberg, 1975), using O(n+m) memory:
+ * <p>
+ *
+ * <ul>
+ * <li>The presented text is split at its middle character. One pass of the MSD recurrence over the first half, and one
+ * backward pass over the second half, give for every split point k of the transcribed text the cost of aligning the
+ * first half with the first k characters and the second half with the rest. An optimal alignment passes through the k
+ * with the least total cost.
+ * <li>The two halves are then aligned independently, recursively. Since they write to separate parts of the output,
+ * they run as fork/join tasks. Small subproblems are finished in the current task.
+ * </ul>
+ * <p>
+ *
+ * The alignment is canonical (deterministic): the smallest optimal split point is always taken, and a single presented
+ * character is matched with the first equal transcribed character. It is one of the alignments found by
+ * <code>MSD2</code> (without transpositions), and the explanation uses the same letters (c = correct, i = insertion, d
+ * = deletion, x = substitution).
+ * <p>
+ *
+ * The tasks run in a shared <code>ForkJoinPool</code> (Android API 21 or later; this class is meant for the analysis of
+ * data, rather than for use during an experiment). Run from the command line with two files, the MSD, error rate, and
+ * alignment of their texts are printed. With <code>-check</code>, the results are checked against <code>MSD2</code>
+ * for random short texts.
+ * <p>
+ *
+ * Hirschberg, D. S. (1975). A linear space algorithm for computing maximal common subsequences. <i>Communications of
+ * the ACM</i>, 18(6), 341-343.
+ */
+public class HirschbergAligner
+{
+	// subproblems with fewer cells than this are not split into separate tasks
+	private static final int SEQUENTIAL_CELLS = 1 << 16;
+
+	private static ForkJoinPool pool;
+
+	private final char[] p, t;
+	private final byte[] ops; // the explanation (MSD2.OP_ codes)
+	private final int msd;
+
+	/**
+	 * Find the MSD and a canonical optimal alignment of two texts.
+	 *
+	 * @param presented
+	 *            the presented text
+	 * @param transcribed
+	 *            the transcribed text
+	 */
+	public HirschbergAligner(String presented, String transcribed)
+	{
+		p = presented.toCharArray();
+		t = transcribed.toCharArray();
+
+		// each subproblem writes its letters from the start of its own part of the buffer; unused slots stay 0
+		byte[] buffer = new byte[p.length + t.length];
+		AlignTask task = new AlignTask(0, p.length, 0, t.length, buffer, 0);
+		if ((long)p.length * t.length < SEQUENTIAL_CELLS)
+			task.compute();
+		else
+			getPool().invoke(task);
+
+		int n = 0;
+		int errors = 0;
+		for (byte op : buffer)
+			if (op != 0)
+			{
+				buffer[n++] = op;
+				if (op != MSD2.OP_CORRECT)
+					++errors;
+			}
+		ops = new byte[n];
+		System.arraycopy(buffer, 0, ops, 0, n);
+		msd = errors;
+	}
+
+	private static synchronized ForkJoinPool getPool()
+	{
+		if (pool == null)
+			pool = new ForkJoinPool();
+		return pool;
+	}
+
+	/*
+	 * Align p[pFrom..pTo) with t[tFrom..tTo), writing the explanation to out from index at.
+	 */
+	private final class AlignTask extends RecursiveAction
+	{
+		private static final long serialVersionUID = 1L;
+
+		private final int pFrom, pTo, tFrom, tTo;
+		private final byte[] out;
+		private final int at;
+
+		AlignTask(int pFromArg, int pToArg, int tFromArg, int tToArg, byte[] outArg, int atArg)
+		{
+			pFrom = pFromArg;
+			pTo = pToArg;
+			tFrom = tFromArg;
+			tTo = tToArg;
+			out = outArg;
+			at = atArg;
+		}
+
+		@Override
+		protected void compute()
+		{
+			align(pFrom, pTo, tFrom, tTo, out, at, true);
+		}
+
+		private void align(int pFrom, int pTo, int tFrom, int tTo, byte[] out, int at, boolean fork)
+		{
+			int n = pTo - pFrom;
+			int m = tTo - tFrom;
+
+			if (n == 0)
+			{
+				for (int j = 0; j < m; ++j)
+					out[at++] = MSD2.OP_INSERTION;
+				return;
+			}
+			if (m == 0)
+			{
+				for (int i = 0; i < n; ++i)
+					out[at++] = MSD2.OP_DELETION;
+				return;
+			}
+			if (n == 1)
+			{
+				alignOne(p[pFrom], tFrom, tTo, out, at);
+				return;
+			}
+
+			int pMid = pFrom + n / 2;
+			int k = split(pFrom, pMid, pTo, tFrom, tTo);
+			int tMid = tFrom + k;
+			int rightAt = at + (pMid - pFrom) + k;
+
+			if (fork && (long)n * m >= SEQUENTIAL_CELLS)
+				invokeAll(new AlignTask(pFrom, pMid, tFrom, tMid, out, at), new AlignTask(pMid, pTo, tMid, tTo, out,
+						rightAt));
+			else
+			{
+				align(pFrom, pMid, tFrom, tMid, out, at, false);
+				align(pMid, pTo, tMid, tTo, out, rightAt, false);
+			}
+		}
+	}
+
+	/*
+	 * Align one presented character with t[tFrom..tTo): match it with the first equal character if there is one,
+	 * otherwise substitute it for the first character. The other characters are insertions.
+	 */
+	private void alignOne(char c, int tFrom, int tTo, byte[] out, int at)
+	{
+		int match = tFrom;
+		while (match < tTo && t[match] != c)
+			++match;
+		if (match == tTo)
+		{
+			out[at++] = MSD2.OP_SUBSTITUTION;
+			for (int j = tFrom + 1; j < tTo; ++j)
+				out[at++] = MSD2.OP_INSERTION;
+			return;
+		}
+		for (int j = tFrom; j < match; ++j)
+			out[at++] = MSD2.OP_INSERTION;
+		out[at++] = MSD2.OP_CORRECT;
+		for (int j = match + 1; j < tTo; ++j)
+			out[at++] = MSD2.OP_INSERTION;
+	}
+
+	/*
+	 * Return the k (0..m) that minimizes the cost of aligning p[pFrom..pMid) with t[tFrom..tFrom+k) plus the cost of
+	 * aligning p[pMid..pTo) with t[tFrom+k..tTo). The smallest such k is returned.
+	 */
+	private int split(int pFrom, int pMid, int pTo, int tFrom, int tTo)
+	{
+		int m = tTo - tFrom;
+		int[] forward = new int[m + 1];
+		int[] backward = new int[m + 1];
+
+		// forward[j] = MSD(p[pFrom..pMid), t[tFrom..tFrom+j))
+		for (int j = 0; j <= m; ++j)
+			forward[j] = j;
+		for (int i = pFrom; i < pMid; ++i)
+		{
+			int diagonal = forward[0];
+			forward[0] = i - pFrom + 1;
+			for (int j = 1; j <= m; ++j)
+			{
+				int up = forward[j];
+				int value = Math.min(up + 1, forward[j - 1] + 1);
+				value = Math.min(value, diagonal + (p[i] == t[tFrom + j - 1] ? 0 : 1));
+				diagonal = up;
+				forward[j] = value;
+			}
+		}
+
+		// backward[j] = MSD(p[pMid..pTo), t[tFrom+j..tTo))
+		for (int j = 0; j <= m; ++j)
+			backward[j] = m - j;
+		for (int i = pTo - 1; i >= pMid; --i)
+		{
+			int diagonal = backward[m];
+			backward[m] = pTo - i;
+			for (int j = m - 1; j >= 0; --j)
+			{
+				int down = backward[j];
+				int value = Math.min(down + 1, backward[j + 1] + 1);
+				value = Math.min(value, diagonal + (p[i] == t[tFrom + j] ? 0 : 1));
+				diagonal = down;
+				backward[j] = value;
+			}
+		}
+
+		int best = 0;
+		for (int k = 1; k <= m; ++k)
+			if (forward[k] + backward[k] < forward[best] + backward[best])
+				best = k;
+		return best;
+	}
+
+	/**
+	 * Return the minimum string distance.
+	 */
+	public int getMSD()
+	{
+		return msd;
+	}
+
+	/**
+	 * Return the error rate (%), computed using the larger of the lengths of the presented and transcribed text (as in
+	 * <code>MSD.getErrorRate()</code>).
+	 */
+	public double getErrorRate()
+	{
+		return (double)msd / Math.max(p.length, t.length) * 100.0;
+	}
+
+	/**
+	 * Return the explanation of the alignment as <code>MSD2.OP_</code> codes. The array is not copied.
+	 */
+	public byte[] getOps()
+	{
+		return ops;
+	}
+
+	/**
+	 * Return the explanation string of the alignment (using the letters of <code>MSD2.Alignment</code>).
+	 */
+	public String getExplanation()
+	{
+		char[] e = new char[ops.length];
+		for (int k = 0; k < e.length; ++k)
+			e[k] = (char)ops[k];
+		return new String(e);
+	}
+
+	/**
+	 * Return the aligned presented text, with '-' for the characters missing because of insertions.
+	 */
+	public String getAlignedPresented()
+	{
+		char[] a = new char[ops.length];
+		int i = 0;
+		for (int k = 0; k < a.length; ++k)
+			a[k] = ops[k] == MSD2.OP_INSERTION ? '-' : p[i++];
+		return new String(a);
+	}
+
+	/**
+	 * Return the aligned transcribed text, with '-' for the characters missing because of deletions.
+	 */
+	public String getAlignedTranscribed()
+	{
+		char[] a = new char[ops.length];
+		int j = 0;
+		for (int k = 0; k < a.length; ++k)
+			a[k] = ops[k] == MSD2.OP_DELETION ? '-' : t[j++];
+		return new String(a);
+	}
+
+	// =======================================================================================================
+
+	public static void main(String[] args) throws IOException
+	{
+		if (args.length == 1 && args[0].equals("-check"))
+		{
+			check();
+			return;
+		}
+		if (args.length != 2)
+		{
+			System.out.println("usage: java HirschbergAligner presented.txt transcribed.txt");
+			System.out.println("       java HirschbergAligner -check");
+			System.exit(1);
+		}
+
+		long start = System.nanoTime();
+		HirschbergAligner ha = new HirschbergAligner(read(args[0]), read(args[1]));
+		long elapsed = System.nanoTime() - start;
+
+		System.out.println("MSD : " + ha.getMSD());
+		System.out.printf("Error rate : %.2f%%\n", ha.getErrorRate());
+		System.out.printf("Time : %.1f ms\n", elapsed / 1e6);
+		System.out.println(ha.getAlignedPresented());
+		System.out.println(ha.getAlignedTranscribed());
+		System.out.println(ha.getExplanation());
+	}
+
+	private static String read(String file) throws IOException
+	{
+		StringBuilder sb = new StringBuilder();
+		BufferedReader in = new BufferedReader(new FileReader(file));
+		try
+		{
+			String line;
+			while ((line = in.readLine()) != null)
+			{
+				if (sb.length() > 0)
+					sb.append(' ');
+				sb.append(line.trim());
+			}
+		} finally
+		{
+			in.close();
+		}
+		return sb.toString();
+	}
+
+	/*
+	 * Check, for random short texts, that the MSD agrees with MSD2 and that the alignment is one of MSD2's alignments.
+	 * The long-text cases check that the forked path agrees with MSDDistance.
+	 */
+	private static void check()
+	{
+		Random r = new Random(1975);
+		int failures = 0;
+		for (int trial = 0; trial < 5000; ++trial)
+		{
+			String a = randomText(r, r.nextInt(12));
+			String b = randomText(r, r.nextInt(12));
+			HirschbergAligner ha = new HirschbergAligner(a, b);
+			MSD2 m = new MSD2(a, b);
+
+			HashSet<String> explanations = new HashSet<String>();
+			Iterator<MSD2.Alignment> it = m.alignmentIterator();
+			while (it.hasNext())
+				explanations.add(it.next().getExplanation());
+
+			if (ha.getMSD() != m.getMSD() || !explanations.contains(ha.getExplanation()))
+			{
+				System.out.println("FAIL: \"" + a + "\" \"" + b + "\" " + ha.getExplanation());
+				++failures;
+			}
+		}
+		for (int trial = 0; trial < 20; ++trial)
+		{
+			String a = randomText(r, 1000 + r.nextInt(2000));
+			String b = mutate(r, a);
+			HirschbergAligner ha = new HirschbergAligner(a, b);
+			if (ha.getMSD() != MSDDistance.distance(a, b) || !ha.getAlignedPresented().replace("-", "").equals(a)
+					|| !ha.getAlignedTranscribed().replace("-", "").equals(b))
+			{
+				System.out.println("FAIL: long text, length " + a.length());
+				++failures;
+			}
+		}
+		System.out.println(failures == 0 ? "OK" : failures + " failures");
+	}
+
+	private static String randomText(Random r, int length)
+	{
+		char[] c = new char[length];
+		for (int i = 0; i < length; ++i)
+			c[i] = "abc ".charAt(r.nextInt(4));
+		return new String(c);
+	}
+
+	private static String mutate(Random r, String s)
+	{
+		StringBuilder sb = new StringBuilder(s);
+		for (int k = s.length() / 10; k > 0; --k)
+		{
+			int i = r.nextInt(sb.length());
+			switch (r.nextInt(3))
+			{
+				case 0:
+					sb.deleteCharAt(i);
+					break;
+				case 1:
+					sb.insert(i, 'x');
+					break;
+				default:
+					sb.setCharAt(i, 'y');
+			}
+		}
+		return sb.toString();
+	}
+}
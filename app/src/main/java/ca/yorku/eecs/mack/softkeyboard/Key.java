@@ -1,12 +1,8 @@
 package ca.yorku.eecs.mack.softkeyboard;
 
-import android.content.Context;
 import android.graphics.Canvas;
 import android.graphics.Color;
 import android.graphics.Paint;
-import android.graphics.Rect;
-import android.util.AttributeSet;
-import android.view.View;
 
 import java.util.Locale;
 
@@ -14,99 +10,67 @@ import java.util.Locale;
  * Key - a class for keys for the soft keyboard
  * <p>
  *
+ * A key is a model of the key: its bounds (in the keyboard), text, type, character code, and text
+ * metrics. It is not a view and holds no drawing objects; the keys share the Paints below, which
+ * are used (on the UI thread) to draw the keys' images in the key atlas. The keys are drawn by the
+ * <code>KeyboardPanel</code> (in its single-canvas mode) or by a <code>KeyView</code> per key.
+ * <p>
+ *
  * @author (c) Scott MacKenzie, 2015-2017
  */
-public class Key extends View
+public class Key
 {
     final static String MYDEBUG = "MYDEBUG"; // for Log.i messages
-    private final int UP_FILL_COLOR = Color.GRAY;
-    private final int DOWN_FILL_COLOR = 0xff8080ff;
-    private final int BORDER_COLOR = Color.BLACK;
+    final static int UP_FILL_COLOR = Color.GRAY;
+    final static int DOWN_FILL_COLOR = 0xff8080ff;
+    final static int BORDER_COLOR = Color.BLACK;
+    final static int LINE_WIDTH = 5;
+
+    // the Paints shared by all the keys (the fill colour and text size are set for each key)
+    private final static Paint LINE_PAINT = new Paint();
+    private final static Paint FILL_PAINT = new Paint();
+    private final static Paint TEXT_PAINT = new Paint();
+    private final static float DEFAULT_TEXT_SIZE = new Paint().getTextSize(); // for undefined keys
+
+    static
+    {
+        LINE_PAINT.setStyle(Paint.Style.STROKE);
+        LINE_PAINT.setStrokeWidth(LINE_WIDTH);
+        LINE_PAINT.setColor(BORDER_COLOR);
+
+        TEXT_PAINT.setAntiAlias(true);
+        TEXT_PAINT.setColor(Color.BLACK);
+        TEXT_PAINT.setTextAlign(Paint.Align.CENTER);
+    }
 
     // requirements for key "type"
-    private final String ALPHA = "ABCDEFGHIJKLMNOPQRSTUVWXYZabcdefghijlkmnopqrstuvwxyz";
-    private final String SPACE = "Space";
-    private final String ENTER = "Enter";
-    private final String BACKSPACE = "Bksp";
+    private final static String ALPHA = "ABCDEFGHIJKLMNOPQRSTUVWXYZabcdefghijlkmnopqrstuvwxyz";
+    private final static String SPACE = "Space";
+    private final static String ENTER = "Enter";
+    private final static String BACKSPACE = "Bksp";
 
     public int width;
     public int height;
-    Paint linePaint, fillPaint, textPaint;
-    Rect keyShape;
+    int left, top;
     String keyText;
     int keyType;
     int charCode;
+    float textSize;
     int xText, yText;
-
-    /**
-     * Construct a Key object.
-     */
-    public Key(Context context, AttributeSet attrs, int defStyle)
-    {
-        super(context, attrs, defStyle);
-        initialize();
-    }
-
-    /**
-     * Construct a Key object.
-     */
-    public Key(Context context, AttributeSet attrs)
-    {
-        super(context, attrs);
-        initialize();
-    }
-
-    /**
-     * Construct a Key object.
-     */
-    public Key(Context context)
-    {
-        super(context);
-        initialize();
-    }
-
-    private void initialize()
-    {
-        setFocusableInTouchMode(true);
-        setFocusable(true);
-
-        linePaint = new Paint();
-        linePaint.setStyle(Paint.Style.STROKE);
-        linePaint.setStrokeWidth(5);
-        linePaint.setColor(BORDER_COLOR);
-
-        fillPaint = new Paint();
-        fillPaint.setColor(UP_FILL_COLOR);
-
-        textPaint = new Paint();
-        textPaint.setAntiAlias(true);
-        textPaint.setColor(Color.BLACK);
-        textPaint.setTextAlign(Paint.Align.CENTER);
-
-        keyShape = new Rect();
-    }
+    boolean pressed;
+    int atlasIndex; // the key's index in the atlas (and the keyboard)
 
     /*
-     * Since we are extending View, we must override onMeasure. See DemoCustomButton for further
-     * discussion.
+     * Draw the key, pressed or not, with its top-left corner at (0, 0) (this is how the key's
+     * images in the atlas are made). Modify the code here to create the desired appearance.
      */
-    @Override
-    protected void onMeasure(int widthMeasureSpec, int heightMeasureSpec)
+    void drawKey(Canvas canvas, boolean pressedArg)
     {
-        setMeasuredDimension(width, height);
-    }
-
-    /*
-     * Draw the key. Modify the code here to create the desired appearance.
-     */
-    @Override
-    protected void onDraw(Canvas canvas)
-    {
-        super.onDraw(canvas);
-
-        canvas.drawRect(keyShape, fillPaint);
-        canvas.drawRect(keyShape, linePaint);
-        canvas.drawText(keyText, xText, yText, textPaint);
+        FILL_PAINT.setColor(pressedArg ? DOWN_FILL_COLOR : UP_FILL_COLOR);
+        TEXT_PAINT.setTextSize(textSize);
+        canvas.drawRect(0, 0, width, height, FILL_PAINT);
+        canvas.drawRect(0, 0, width, height, LINE_PAINT);
+        canvas.drawText(keyText, xText, yText, TEXT_PAINT);
     }
 
     public void initializeKey(String textArg, int widthArg, int heightArg)
@@ -145,15 +109,12 @@ public class Key extends View
         {
             keyType = KeyboardEvent.TYPE_UNDEFINED;
             charCode = KeyboardEvent.CHAR_NULL;
+            textSize = DEFAULT_TEXT_SIZE;
         }
 
+        TEXT_PAINT.setTextSize(textSize);
         xText = width / 2;
-        yText = height / 2 - (int)(textPaint.ascent() / 3);
-
-        keyShape.left = 0;
-        keyShape.right = width;
-        keyShape.top = 0;
-        keyShape.bottom = height;
+        yText = height / 2 - (int)(TEXT_PAINT.ascent() / 3);
     }
 
     /*
@@ -168,14 +129,41 @@ public class Key extends View
     private void setTextSize(float nominalArg)
     {
         // nominal text size (works fine for alpha keys and wide SPACE keys)
-        textPaint.setTextSize(nominalArg * height);
+        textSize = nominalArg * height;
 
         // adjust the text size for narrow keys
-        float textWidth = textPaint.measureText(keyText);
-        float textSize = textPaint.getTextSize();
+        TEXT_PAINT.setTextSize(textSize);
+        float textWidth = TEXT_PAINT.measureText(keyText);
         float newTextSize = textSize * ((0.85f * width) / textWidth);
         if (newTextSize < textSize)
-            textPaint.setTextSize(newTextSize);
+            textSize = newTextSize;
+    }
+
+    // the key's position in the keyboard (right and bottom are at left + width and top + height)
+    public void setPosition(int leftArg, int topArg)
+    {
+        left = leftArg;
+        top = topArg;
+    }
+
+    public int getLeft()
+    {
+        return left;
+    }
+
+    public int getTop()
+    {
+        return top;
+    }
+
+    public int getRight()
+    {
+        return left + width;
+    }
+
+    public int getBottom()
+    {
+        return top + height;
     }
 
     public String getText()
@@ -198,13 +186,14 @@ public class Key extends View
         return charCode;
     }
 
-    public void setKeyPressed(boolean pressed)
+    public void setKeyPressed(boolean pressedArg)
+    {
+        pressed = pressedArg;
+    }
+
+    public boolean isKeyPressed()
     {
-        if (pressed)
-            fillPaint.setColor(DOWN_FILL_COLOR);
-        else
-            fillPaint.setColor(UP_FILL_COLOR);
-        invalidate();
+        return pressed;
     }
 
 }
\ No newline at end of file
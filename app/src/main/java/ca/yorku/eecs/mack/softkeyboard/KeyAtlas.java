@@ -0,0 +1,132 @@
+package ca.yorku.eecs.mack.softkeyboard;
+
+import android.graphics.Bitmap;
+import android.graphics.Canvas;
+import android.graphics.Rect;
+import android.graphics.RectF;
+
+/**
+ * KeyAtlas - the pre-drawn images of the keys of a keyboard, in one bitmap.
+ * <p>
+ *
+ * Each key has an image for its UP and DOWN (pressed) states and, for alpha keys, the image of its popup key. The
+ * images are drawn once, by the keys themselves (<code>Key.drawKey</code> and <code>KeyPopup.drawPopup</code>), so
+ * they look exactly as before; drawing a key is then a single <code>drawBitmap</code> from a region of the atlas,
+ * with no text to lay out or rasterise.
+ * <p>
+ *
+ * An atlas depends only on the layout, the scale, and the pixel density, so the last one built is kept and reused
+ * (e.g., by the next block of an experiment) while those stay the same.
+ */
+public class KeyAtlas
+{
+	public static final int UP = 0;
+	public static final int DOWN = 1;
+	public static final int POPUP = 2;
+	private static final int STATES = 3;
+	private static final int MAX_WIDTH = 1024; // of the bitmap (unless a key is wider)
+
+	private static KeyAtlas last;
+
+	private final String id;
+	private final Bitmap bitmap;
+	private final int[] cells; // [4 * (STATES * key + state)] = left, top, right, bottom (empty = no image)
+	private final Rect src = new Rect();
+	private final RectF dst = new RectF();
+
+	/**
+	 * Return the atlas for a keyboard, building it only if the last atlas was for a different keyboard.
+	 *
+	 * @param idArg
+	 *            identifies the layout, scale, and density (and whether there are popup keys)
+	 * @param popup
+	 *            the popup key, or null if popup keys are not shown
+	 */
+	public static synchronized KeyAtlas get(String idArg, Key[] keys, KeyPopup popup)
+	{
+		if (last == null || !last.id.equals(idArg) || last.cells.length != 4 * STATES * keys.length)
+			last = new KeyAtlas(idArg, keys, popup);
+		return last;
+	}
+
+	private KeyAtlas(String idArg, Key[] keys, KeyPopup popup)
+	{
+		id = idArg;
+		cells = new int[4 * STATES * keys.length];
+
+		// place the images in rows ("shelves"), left to right
+		int width = MAX_WIDTH;
+		for (Key k : keys)
+			width = Math.max(width, k.width);
+		int x = 0;
+		int y = 0;
+		int shelf = 0; // height of the current row
+		for (int i = 0; i < keys.length; ++i)
+			for (int state = UP; state <= POPUP; ++state)
+			{
+				int w = keys[i].width;
+				int h = keys[i].height;
+				if (state == POPUP)
+				{
+					if (popup == null || keys[i].getType() != KeyboardEvent.TYPE_ALPHA)
+						continue;
+					w = popup.width;
+					h = popup.height;
+				}
+				if (x + w > width)
+				{
+					x = 0;
+					y += shelf;
+					shelf = 0;
+				}
+				int c = 4 * (STATES * i + state);
+				cells[c] = x;
+				cells[c + 1] = y;
+				cells[c + 2] = x + w;
+				cells[c + 3] = y + h;
+				x += w;
+				shelf = Math.max(shelf, h);
+			}
+
+		bitmap = Bitmap.createBitmap(width, Math.max(1, y + shelf), Bitmap.Config.ARGB_8888);
+		Canvas canvas = new Canvas(bitmap);
+		for (int i = 0; i < keys.length; ++i)
+			for (int state = UP; state <= POPUP; ++state)
+			{
+				int c = 4 * (STATES * i + state);
+				if (cells[c + 2] == cells[c])
+					continue;
+				canvas.save();
+				canvas.clipRect(cells[c], cells[c + 1], cells[c + 2], cells[c + 3]);
+				canvas.translate(cells[c], cells[c + 1]);
+				if (state == POPUP)
+				{
+					popup.setText(keys[i].getText());
+					popup.drawPopup(canvas);
+				} else
+					keys[i].drawKey(canvas, state == DOWN);
+				canvas.restore();
+			}
+	}
+
+	/**
+	 * Return true if the atlas has an image of a key in the given state.
+	 */
+	public boolean has(int key, int state)
+	{
+		int c = 4 * (STATES * key + state);
+		return cells[c + 2] != cells[c];
+	}
+
+	/**
+	 * Draw the image of a key in the given state, with its top-left corner at (left, top). Not thread-safe: call on the
+	 * UI thread.
+	 */
+	public void draw(Canvas canvas, int key, int state, float left, float top)
+	{
+		int c = 4 * (STATES * key + state);
+		src.set(cells[c], cells[c + 1], cells[c + 2], cells[c + 3]);
+		dst.set(left, top, left + src.width(), top + src.height());
+		canvas.drawBitmap(bitmap, src, dst, null);
+	}
+}
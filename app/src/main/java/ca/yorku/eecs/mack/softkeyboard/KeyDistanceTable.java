@@ -0,0 +1,154 @@
+package ca.yorku.eecs.mack.softkeyboard;
+
+import java.io.BufferedReader;
+import java.io.FileReader;
+import java.io.IOException;
+import java.util.ArrayList;
+
+/**
+ * KeyDistanceTable - the distances between the keys of a keyboard layout, as substitution costs for the weighted MSD.
+ * <p>
+ *
+ * The table is built once per layout from the same definition that <code>KeyboardPanel.loadKeyboardFromResource</code>
+ * reads (the first entry holds the base key width and height; each other entry holds a key's text, x, y, width, and
+ * height, in base key units). The distance between two characters is the distance between the centres of their keys,
+ * in units of the width of an alpha key ("A"). Letters are looked up in either case, and "Space" is the space
+ * character; for a character with several keys (e.g., the space keys of OPTI), the nearest pair of keys counts.
+ * <p>
+ *
+ * The substitution costs are precomputed into a flat <code>int</code> table for the characters 0-127, in units of
+ * 1/{@link #SCALE} edit, so the inner loop of the weighted MSD is a single lookup. The cost grows with distance: keys
+ * {@link #SATURATION} key widths apart or more, and characters not on the layout, cost a full edit; neighbouring keys
+ * cost about half an edit. See <code>WeightedMSD</code>.
+ */
+public class KeyDistanceTable
+{
+	public static final int SCALE = 100; // cost units per edit
+	public static final float SATURATION = 2.0f; // distance (in alpha key widths) costing a full edit
+	static final int SIZE = 128;
+
+	final int[] costs = new int[SIZE * SIZE]; // [a * SIZE + b]
+	private final float[] distances = new float[SIZE * SIZE];
+
+	private KeyDistanceTable()
+	{
+	}
+
+	/**
+	 * Build the table for a layout.
+	 *
+	 * @param keyboardDef
+	 *            the layout definition (e.g., <code>getResources().getStringArray(R.array.qwerty)</code>)
+	 */
+	public static KeyDistanceTable fromLayout(String[] keyboardDef)
+	{
+		String[] widthheight = keyboardDef[0].split(",");
+		float baseWidth = Float.parseFloat(widthheight[0].trim());
+		float baseHeight = Float.parseFloat(widthheight[1].trim());
+
+		// key centres, in base units
+		int n = keyboardDef.length - 1;
+		char[] chars = new char[n];
+		float[] cx = new float[n];
+		float[] cy = new float[n];
+		float alphaWidth = baseWidth;
+		for (int i = 0; i < n; ++i)
+		{
+			String[] s = keyboardDef[i + 1].split(",");
+			String keyText = s[0].trim();
+			float x = Float.parseFloat(s[1].trim()) * baseWidth;
+			float y = Float.parseFloat(s[2].trim()) * baseHeight;
+			float w = Float.parseFloat(s[3].trim()) * baseWidth;
+			float h = Float.parseFloat(s[4].trim()) * baseHeight;
+			cx[i] = x + w / 2f;
+			cy[i] = y + h / 2f;
+			if (keyText.equals("A"))
+				alphaWidth = w;
+			chars[i] = keyText.equals("Space") ? ' ' : keyText.length() == 1 ? Character.toLowerCase(keyText.charAt(
+					0)) : 0; // 0 = not a character key (Bksp, Enter)
+		}
+
+		KeyDistanceTable kdt = new KeyDistanceTable();
+		for (int k = 0; k < kdt.distances.length; ++k)
+			kdt.distances[k] = Float.NaN;
+		for (int i = 0; i < n; ++i)
+			for (int j = 0; j < n; ++j)
+			{
+				if (chars[i] == 0 || chars[j] == 0 || chars[i] >= SIZE || chars[j] >= SIZE)
+					continue;
+				float dx = cx[i] - cx[j];
+				float dy = cy[i] - cy[j];
+				float d = (float)Math.sqrt(dx * dx + dy * dy) / alphaWidth;
+				for (char a : cases(chars[i]))
+					for (char b : cases(chars[j]))
+					{
+						int k = a * SIZE + b;
+						if (Float.isNaN(kdt.distances[k]) || d < kdt.distances[k])
+							kdt.distances[k] = d;
+					}
+			}
+
+		for (int a = 0; a < SIZE; ++a)
+			for (int b = 0; b < SIZE; ++b)
+			{
+				int k = a * SIZE + b;
+				float d = kdt.distances[k];
+				if (a == b)
+					kdt.costs[k] = 0;
+				else if (Float.isNaN(d) || d >= SATURATION)
+					kdt.costs[k] = SCALE;
+				else
+					kdt.costs[k] = Math.round(SCALE * d / SATURATION);
+			}
+		return kdt;
+	}
+
+	private static char[] cases(char c)
+	{
+		char upper = Character.toUpperCase(c);
+		return upper == c || upper >= SIZE ? new char[] {c} : new char[] {c, upper};
+	}
+
+	/**
+	 * Build the table for a layout in a resource file (e.g., <code>res/values/qwerty.xml</code>), for analysis away
+	 * from the device.
+	 */
+	public static KeyDistanceTable fromResourceFile(String file) throws IOException
+	{
+		ArrayList<String> items = new ArrayList<String>();
+		BufferedReader in = new BufferedReader(new FileReader(file));
+		try
+		{
+			String line;
+			while ((line = in.readLine()) != null)
+			{
+				int start = line.indexOf("<item>");
+				int end = line.indexOf("</item>");
+				if (start >= 0 && end > start)
+					items.add(line.substring(start + "<item>".length(), end));
+			}
+		} finally
+		{
+			in.close();
+		}
+		return fromLayout(items.toArray(new String[items.size()]));
+	}
+
+	/**
+	 * Return the distance between the keys of two characters, in alpha key widths (NaN if either is not on the layout).
+	 */
+	public float getDistance(char a, char b)
+	{
+		return a < SIZE && b < SIZE ? distances[a * SIZE + b] : Float.NaN;
+	}
+
+	/**
+	 * Return the cost of substituting b for a, in units of 1/SCALE edit.
+	 */
+	public int getCost(char a, char b)
+	{
+		if (a < SIZE && b < SIZE)
+			return costs[a * SIZE + b];
+		return a == b ? 0 : SCALE;
+	}
+}
@@ -12,6 +12,12 @@ import android.view.View;
  * KeyPopup - popup key for soft keyboard
  * <p>
  *
+ * The popup key is laid out once, at the top-left of the keyboard, and is moved above a key with
+ * its translation (a render property), and shown or hidden with its alpha, so neither needs a
+ * layout pass or a redraw of the keyboard. Its image (one per alpha key) comes from the key atlas;
+ * only a change of key, not a move, changes what the popup key draws.
+ * <p>
+ *
  * @author (c) Scott MacKenzie, 2015
  */
 public class KeyPopup extends View
@@ -31,6 +37,8 @@ public class KeyPopup extends View
     String keyText;
     int xText, yText;
     float heightFactor;
+    KeyAtlas atlas; // the pre-drawn popup keys (null = draw the popup key)
+    int atlasIndex; // the index in the atlas of the key the popup is shown for
 
     public KeyPopup(Context context, AttributeSet attrs, int defStyle)
     {
@@ -89,14 +97,31 @@ public class KeyPopup extends View
     {
         super.onDraw(canvas);
 
-        if (!visible)
-            return;
+        if (keyText == null)
+            return; // not yet shown (hidden by its alpha, otherwise)
 
+        if (atlas != null && atlas.has(atlasIndex, KeyAtlas.POPUP))
+            atlas.draw(canvas, atlasIndex, KeyAtlas.POPUP, 0, 0);
+        else
+            drawPopup(canvas);
+    }
+
+    /*
+     * Draw the popup key (this is also how the popup images in the atlas are made).
+     */
+    void drawPopup(Canvas canvas)
+    {
         canvas.drawRect(popup, fillPaint);
         canvas.drawRect(popup, linePaint);
         canvas.drawText(keyText, xText, yText, textPaint);
     }
 
+    public void setAtlas(KeyAtlas atlasArg)
+    {
+        atlas = atlasArg;
+        keyText = null; // (the atlas uses the popup key to draw its images)
+    }
+
     /*
      * The width/height arguments supplied are the width and height of an alpha key on the soft
      * keyboard.
@@ -115,23 +140,42 @@ public class KeyPopup extends View
 
         xText = width / 2;
         yText = height / 2 - (int)(textPaint.ascent() / 3);
+
+        // the popup key's bounds stay fixed; it is moved by translation (see renderAbove)
+        this.setLeft(0);
+        this.setTop(0);
+        this.setRight(width);
+        this.setBottom(height);
+        this.setAlpha(0f);
+        keyText = null;
+        visible = false;
     }
 
     public void renderAbove(Key k)
     {
         if (k == null)
-            visible = false;
+        {
+            if (visible)
+            {
+                visible = false;
+                this.setAlpha(0f);
+            }
+            return;
+        }
 
-        else
+        this.setTranslationX(k.getLeft() + (k.getRight() - k.getLeft() - width) / 2f);
+        this.setTranslationY(k.getTop() - height);
+        if (!visible)
         {
             visible = true;
-            this.setLeft(k.getLeft());
-            this.setRight(k.getRight());
-            this.setTop((int)(k.getTop() - height + 0.5f));
-            this.setBottom(k.getTop());
+            this.setAlpha(1f);
+        }
+        if (keyText == null || k.atlasIndex != atlasIndex || !keyText.equals(k.getText()))
+        {
             this.setText(k.getText());
+            atlasIndex = k.atlasIndex;
+            this.invalidate(); // a different key's image
         }
-        this.invalidate();
     }
 
     public void setText(String textArg)
@@ -0,0 +1,48 @@
+package ca.yorku.eecs.mack.softkeyboard;
+
+import android.content.Context;
+import android.graphics.Canvas;
+import android.view.View;
+
+/**
+ * KeyView - a view for one key of the soft keyboard, used when the <code>KeyboardPanel</code> is
+ * not in its single-canvas mode. The key (the model) is drawn from its image in the key atlas.
+ * <p>
+ */
+public class KeyView extends View
+{
+    Key key;
+    KeyAtlas atlas;
+
+    public KeyView(Context context, Key keyArg, KeyAtlas atlasArg)
+    {
+        super(context);
+        key = keyArg;
+        atlas = atlasArg;
+        setFocusableInTouchMode(true);
+        setFocusable(true);
+    }
+
+    /*
+     * Since we are extending View, we must override onMeasure. See DemoCustomButton for further
+     * discussion.
+     */
+    @Override
+    protected void onMeasure(int widthMeasureSpec, int heightMeasureSpec)
+    {
+        setMeasuredDimension(key.width, key.height);
+    }
+
+    @Override
+    protected void onDraw(Canvas canvas)
+    {
+        super.onDraw(canvas);
+        atlas.draw(canvas, key.atlasIndex, key.isKeyPressed() ? KeyAtlas.DOWN : KeyAtlas.UP, 0, 0);
+    }
+
+    public void setKeyPressed(boolean pressed)
+    {
+        key.setKeyPressed(pressed);
+        invalidate();
+    }
+}
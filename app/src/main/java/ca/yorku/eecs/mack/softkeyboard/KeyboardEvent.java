@@ -5,7 +5,9 @@ import android.view.KeyEvent;
 /**
  * KeyboardEvent - This class represents a Keyboard event and holds information about the event. A
  * Keyboard event occurs on finger lift, after the key data are processed. The information available
- * in a <code>KeyboardEvent</code> object includes the the character code, key type, etc.
+ * in a <code>KeyboardEvent</code> object includes the the character code, key type, etc. With
+ * rollover (a key pressed before the previous key is released), the events are delivered in the
+ * order the keys were pressed; the pointer id tells which finger made the keystroke.
  * 
  * @author (c) Scott MacKenzie, 2015-2017
  * 
@@ -29,12 +31,13 @@ class KeyboardEvent
 	String raw; // raw string
 	int charCode; // character code for sending to a text field
 	int type; // type of gesture
-	long timeStampFingerDown; // time stamp of finger down (beginning of gesture)
-	long timeStampFingerUp; // time stamp of finger up (end of gesture)
+	long timeStampFingerDown; // time stamp of finger down (beginning of gesture), uptime in ms
+	long timeStampFingerUp; // time stamp of finger up (end of gesture), uptime in ms
 	int duration; // duration of gesture
+	int pointerId; // the pointer (finger) of the gesture
 
 	KeyboardEvent(String rawArg, int charCodeArg, int typeArg, long timeStampFingerDownArg,
-			long timeStampFingerUpArg)
+			long timeStampFingerUpArg, int pointerIdArg)
 	{
 		raw = rawArg;
 		charCode = charCodeArg;
@@ -42,5 +45,6 @@ class KeyboardEvent
 		timeStampFingerDown = timeStampFingerDownArg;
 		timeStampFingerUp = timeStampFingerUpArg;
 		duration = (int)(timeStampFingerUp - timeStampFingerDown);
+		pointerId = pointerIdArg;
 	}
 }
@@ -2,12 +2,17 @@ package ca.yorku.eecs.mack.softkeyboard;
 
 import android.annotation.SuppressLint;
 import android.content.Context;
+import android.graphics.Canvas;
+import android.graphics.Rect;
 import android.os.Vibrator;
 import android.util.AttributeSet;
 import android.view.MotionEvent;
 import android.view.View;
+import android.view.ViewTreeObserver;
 import android.widget.RelativeLayout;
 
+import java.util.Arrays;
+
 @SuppressLint("ClickableViewAccessibility")
 public class KeyboardPanel extends RelativeLayout implements View.OnTouchListener
 {
@@ -16,9 +21,10 @@ public class KeyboardPanel extends RelativeLayout implements View.OnTouchListene
 	final int DEFAULT_MARGIN = 10; // density-independent pixels
 	final float POPUP_KEY_HEIGHT_FACTOR = 1.5f; // times height of alpha keys
 
-	Vibrator vibrator;
+	HapticsScheduler haptics; // vibrates on key presses, off the UI thread
 	boolean showPopupKey;
 	float offsetFromBottom;
+	boolean singleCanvas; // draw the keys on the panel's canvas, instead of as child views
 
 	// define the callback listener
 	public interface OnKeystrokeListener
@@ -34,12 +40,76 @@ public class KeyboardPanel extends RelativeLayout implements View.OnTouchListene
 	float topMargin; // top margin is special (because of the popup keys)
 	float margin; // left, right, bottom
 	float pixelDensityFactor; // =1 for 160 dpi (Android default)
-	long timeStampFingerDown, timeStampFingerUp;
+
+	// the state of each finger (pointer), indexed by pointer id
+	static final int MAX_POINTERS = 10;
+	static final int POINTER_FREE = 0; // not on a key
+	static final int POINTER_DOWN = 1; // on a key
+	int[] pointerState = new int[MAX_POINTERS];
+	int[] pointerKey = new int[MAX_POINTERS]; // index of the key under the finger
+	long[] pointerOrder = new long[MAX_POINTERS]; // the order in which the fingers went down
+	long[] pointerDownTime = new long[MAX_POINTERS]; // uptime (ms) of the MotionEvents, from getEventTime()
+	long nextPointerOrder;
+
+	/*
+	 * The keystrokes of lifted fingers, waiting for a finger that went down earlier, sorted by the
+	 * order the fingers went down. They are kept apart from the fingers' state, since Android gives
+	 * the id of a lifted finger to the next finger to go down.
+	 */
+	int[] waitingKey = new int[MAX_POINTERS];
+	int[] waitingPointer = new int[MAX_POINTERS];
+	long[] waitingOrder = new long[MAX_POINTERS];
+	long[] waitingDownTime = new long[MAX_POINTERS];
+	long[] waitingUpTime = new long[MAX_POINTERS];
+	int waitingCount;
+	int popupPointer = -1; // the finger the popup key is shown for
+
+	LatencyMonitor latencyMonitor = new LatencyMonitor();
+	long touchNanos; // start of the current onTouch
+	long eventNanos; // time of the current MotionEvent (on the clock of touchNanos)
+	boolean pressOrRelease; // the current onTouch pressed or released a key
+	boolean keystrokeSent; // the current onTouch passed a keystroke to the listener
+
+	// the presses and releases waiting for the next frame (for the DRAW and TOTAL latencies)
+	static final int MAX_PENDING = 16;
+	long[] pendingEventNanos = new long[MAX_PENDING];
+	long[] pendingTouchNanos = new long[MAX_PENDING];
+	int pendingCount;
+	ViewTreeObserver.OnPreDrawListener frameListener = new ViewTreeObserver.OnPreDrawListener()
+	{
+		@Override
+		public boolean onPreDraw()
+		{
+			recordFrame();
+			return true;
+		}
+	};
+	Rect dirty = new Rect(); // what changed in the current onTouch (the keys pressed or released)
+	int popupShownKey = -1; // the key the popup key is shown above (-1 = hidden)
+	long redrawCount, redrawsAvoided; // touch events that did (did not) change the keyboard
+
+	// the log of key crossings (a ring buffer; see getCrossingCount)
+	static final int CROSSING_LOG_SIZE = 256;
+	int[] crossingPointer = new int[CROSSING_LOG_SIZE];
+	int[] crossingFrom = new int[CROSSING_LOG_SIZE];
+	int[] crossingTo = new int[CROSSING_LOG_SIZE];
+	long[] crossingTime = new long[CROSSING_LOG_SIZE];
+	long crossingCount;
 
 	Key[] key;
-	Key currentKey, previousKey;
+	KeyView[] keyView; // the views of the keys (if not in the single-canvas mode)
+	int[] hitColumn, hitRow; // pixel x (y) -> column (row) of the hit-test grid
+	int[] hitGrid; // grid cell -> index of the key covering it (-1 = none)
+	int hitColumns;
+	KeyDistanceTable keyDistanceTable; // for the weighted MSD
 	KeyPopup popupKey;
 
+	KeyAtlas keyAtlas; // the pre-drawn images of the keys and popup keys
+
+	// the keys, for the single-canvas mode
+	int[] keyOrigin; // left, top of key i at 2i, 2i + 1
+	boolean[] keyDown;
+
 	// Should provide three constructors to correspond to each of the three in View.
 	public KeyboardPanel(Context context, AttributeSet attrs, int defStyle)
 	{
@@ -70,7 +140,16 @@ public class KeyboardPanel extends RelativeLayout implements View.OnTouchListene
 
 	public void setVibrator(Vibrator vArg)
 	{
-		vibrator = vArg;
+		if (haptics != null)
+			haptics.shutdown();
+		haptics = new HapticsScheduler(vArg);
+		haptics.start();
+	}
+
+	// the key-press vibrations (e.g., to stop the haptics thread, or for its counts)
+	public HapticsScheduler getHapticsScheduler()
+	{
+		return haptics;
 	}
 
 	public void setShowPopupKey(boolean showPopupKeyArg)
@@ -83,10 +162,22 @@ public class KeyboardPanel extends RelativeLayout implements View.OnTouchListene
 		offsetFromBottom = offsetFromBottomArg;
 	}
 
+	/*
+	 * Draw all the keys on the panel's canvas (true), or add a child view for each key (a KeyView;
+	 * false, the default). Call before loadKeyboardFromResource. In the single-canvas mode,
+	 * the keys are drawn from arrays (with their images in the key atlas), so measuring, laying
+	 * out, and drawing the keyboard do not depend on the number of keys as views.
+	 */
+	public void setSingleCanvas(boolean singleCanvasArg)
+	{
+		singleCanvas = singleCanvasArg;
+	}
+
 	public void loadKeyboardFromResource(int resourceId, float scalingFactorArg)
 	{
 		// read the keyboard definition from a resource file into a String array
 		String[] keyboardDef = getResources().getStringArray(resourceId);
+		keyDistanceTable = KeyDistanceTable.fromLayout(keyboardDef);
 
 		/*
 		 * 1st entry contains baseline key width and height. The values are in device-independent
@@ -153,156 +244,531 @@ public class KeyboardPanel extends RelativeLayout implements View.OnTouchListene
 			if (keyY + keyHeight > keyboardHeight)
 				keyboardHeight = keyY + keyHeight;
 
-			key[i - 1] = new Key(this.getContext());
+			key[i - 1] = new Key();
 			key[i - 1].initializeKey(keyText, keyWidth, keyHeight);
-			key[i - 1].setLeft(keyX);
-			key[i - 1].setRight(keyX + keyWidth);
-			key[i - 1].setTop(keyY);
-			key[i - 1].setBottom(keyY + keyHeight);
-			this.addView(key[i - 1]);
+			key[i - 1].setPosition(keyX, keyY);
+			key[i - 1].atlasIndex = i - 1;
 		}
 		//keyboardWidth += margin; // add right margin
 		//keyboardHeight += margin; // add bottom margin
 		keyboardHeight += (int)(offsetFromBottom * pixelDensityFactor);
 
+		buildHitGrid();
+
 		if (showPopupKey)
 		{
-			// add the popup key last (if enabled), so it gets rendered above the other keys
 			popupKey = new KeyPopup(this.getContext());
 			popupKey.initializeKey(keyWidthAlpha, keyHeightAlpha, POPUP_KEY_HEIGHT_FACTOR);
+		}
+
+		// the keys are drawn from their images in the atlas (built only for a new layout, scale, or density)
+		keyAtlas = KeyAtlas.get(resourceId + "," + scalingFactorArg + "," + pixelDensityFactor + "," + showPopupKey,
+				key, popupKey);
+
+		if (singleCanvas)
+			buildKeyArrays();
+		else
+		{
+			// a view for each key
+			keyView = new KeyView[key.length];
+			for (int i = 0; i < key.length; ++i)
+			{
+				keyView[i] = new KeyView(this.getContext(), key[i], keyAtlas);
+				keyView[i].setLeft(key[i].getLeft());
+				keyView[i].setRight(key[i].getRight());
+				keyView[i].setTop(key[i].getTop());
+				keyView[i].setBottom(key[i].getBottom());
+				this.addView(keyView[i]);
+			}
+		}
+		setWillNotDraw(!singleCanvas);
+
+		if (popupKey != null)
+		{
+			// add the popup key last (if enabled), so it gets rendered above the other keys
+			popupKey.setAtlas(keyAtlas);
 			this.addView(popupKey);
 		}
 	}
 
+	// the distances between the keys of the current layout (used for the weighted MSD)
+	public KeyDistanceTable getKeyDistanceTable()
+	{
+		return keyDistanceTable;
+	}
+
 	@Override
 	public void onLayout(boolean changed, int left, int top, int right, int bottom)
 	{
 		// super.onLayout(changed, left, top, right, bottom);
 	}
 
+	// the input latency statistics of this KeyboardPanel
+	public LatencyMonitor getLatencyMonitor()
+	{
+		return latencyMonitor;
+	}
+
+	// copy the positions of the keys into the array used by onDraw (in the single-canvas mode)
+	private void buildKeyArrays()
+	{
+		keyOrigin = new int[2 * key.length];
+		keyDown = new boolean[key.length];
+		for (int i = 0; i < key.length; ++i)
+		{
+			keyOrigin[2 * i] = key[i].getLeft();
+			keyOrigin[2 * i + 1] = key[i].getTop();
+		}
+	}
+
+	// draw the keys (in the single-canvas mode; otherwise the keys draw themselves)
+	@Override
+	protected void onDraw(Canvas canvas)
+	{
+		super.onDraw(canvas);
+		if (!singleCanvas || keyOrigin == null)
+			return;
+
+		for (int i = 0; i < keyDown.length; ++i)
+			keyAtlas.draw(canvas, i, keyDown[i] ? KeyAtlas.DOWN : KeyAtlas.UP, keyOrigin[2 * i], keyOrigin[2 * i + 1]);
+	}
+
+	// show a key as pressed or not
+	private void setKeyPressed(int k, boolean pressed)
+	{
+		if (singleCanvas)
+		{
+			if (keyDown[k] == pressed)
+				return;
+			keyDown[k] = pressed;
+		} else
+		{
+			if (key[k].isKeyPressed() == pressed)
+				return;
+			keyView[k].setKeyPressed(pressed); // the key view invalidates itself
+		}
+		Key changedKey = key[k];
+		dirty.union(changedKey.getLeft(), changedKey.getTop(), changedKey.getRight(), changedKey.getBottom());
+	}
+
+	/*
+	 * The numbers of touch events that changed the keyboard (a key was pressed or released), so a
+	 * region of it was redrawn, and that changed nothing (or only moved the popup key), so nothing
+	 * was redrawn.
+	 */
+	public long getRedrawCount()
+	{
+		return redrawCount;
+	}
+
+	public long getRedrawsAvoidedCount()
+	{
+		return redrawsAvoided;
+	}
+
+	/*
+	 * Wait for the next frame after a press or release that changed something on the screen (a
+	 * key, or the transcribed text, through the listener). The frame is taken to start when the
+	 * window is about to draw. The presses and releases of one frame are all kept (up to
+	 * MAX_PENDING; beyond that, the later ones are not measured).
+	 */
+	private void waitForFrame()
+	{
+		if (pendingCount == MAX_PENDING)
+			return;
+		if (pendingCount == 0)
+			getViewTreeObserver().addOnPreDrawListener(frameListener);
+		pendingEventNanos[pendingCount] = eventNanos;
+		pendingTouchNanos[pendingCount] = touchNanos;
+		++pendingCount;
+	}
+
+	// the frame after the pending presses and releases ends their latencies
+	private void recordFrame()
+	{
+		long now = LatencyMonitor.uptimeNanos();
+		for (int n = 0; n < pendingCount; ++n)
+		{
+			latencyMonitor.record(LatencyMonitor.DRAW, now - pendingTouchNanos[n]);
+			latencyMonitor.record(LatencyMonitor.TOTAL, now - pendingEventNanos[n]);
+		}
+		pendingCount = 0;
+		getViewTreeObserver().removeOnPreDrawListener(frameListener);
+	}
+
 	// attach the keystroke listener to this KeyboardPanel
 	public void setOnKeystrokeListener(OnKeystrokeListener onKeystrokeListenerArg)
 	{
 		onKeystrokeListener = onKeystrokeListenerArg;
 	}
 
-	// process touch events on this KeyboardPanel
+	/*
+	 * Process touch events on this KeyboardPanel. Each finger (pointer) is tracked separately, so a
+	 * key may be pressed before the previous key is released (rollover, as in two-thumb typing).
+	 * As before, a keystroke is made when the finger lifts, and it is aborted if the finger slides
+	 * off the keys first. Keystrokes are passed to the listener in the order the fingers went down:
+	 * a keystroke whose finger lifts early waits for the keystrokes of the fingers that went down
+	 * before it.
+	 */
 	@Override
 	public boolean onTouch(View v, MotionEvent me)
 	{
-		float x = me.getX();
-		float y = me.getY();
-
-		currentKey = findKey(Math.round(x), Math.round(y)); // null if the touch event is in the
-															// margin
-
-		switch (me.getAction() & MotionEvent.ACTION_MASK)
+		touchNanos = LatencyMonitor.uptimeNanos();
+		eventNanos = LatencyMonitor.eventNanos(me.getEventTime());
+		pressOrRelease = false;
+		keystrokeSent = false;
+		int index = me.getActionIndex();
+		int id = me.getPointerId(index);
+
+		switch (me.getActionMasked())
 		{
 			case MotionEvent.ACTION_DOWN:
 
-				if (currentKey != null)
-				{
-					vibrator.vibrate(10);
-					currentKey.setKeyPressed(true);
-					previousKey = currentKey;
+				// the first finger: any finger still down missed its lift
+				for (int pid = 0; pid < MAX_POINTERS; ++pid)
+					if (pointerState[pid] == POINTER_DOWN)
+						pointerMove(pid, -1, me.getEventTime());
+				// fall through
 
-					// adjust location and text for popup key accordingly
-					if (showPopupKey)
-					{
-						if (currentKey.getType() == KeyboardEvent.TYPE_ALPHA)
-							popupKey.renderAbove(currentKey);
-						else
-							popupKey.renderAbove(null); // no popup key
-					}
+			case MotionEvent.ACTION_POINTER_DOWN:
 
-					timeStampFingerDown = System.currentTimeMillis();
-				}
+				if (id < MAX_POINTERS)
+					pointerDown(id, findKeyIndex(me.getX(index), me.getY(index)), me);
 				break;
 
 			/*
-			 * The finger is moving on the soft keyboard surface. Several scenarios must be tested.
-			 * See below.
+			 * The fingers are moving on the soft keyboard surface (one event for all of them).
+			 * Android batches the samples of a move that arrive within a frame into one event. The
+			 * samples are processed in time order -- the older samples (the history) first, then the
+			 * current one, each for all the fingers -- so the key crossings of all the fingers are
+			 * found in the order they occurred, with the time of the sample where they occurred.
 			 */
 			case MotionEvent.ACTION_MOVE:
 
-				// test: finger is moving in a non-key area of keyboard
-				if (currentKey == null && previousKey == null)
-					break;
-
-				// test: finger has moved from a key to a non-key area of keyboard
-				if (currentKey == null)
-				{
-					previousKey.setKeyPressed(false);
-					previousKey = null;
-					popupKey.renderAbove(null);
-				}
-
-				// test: finger has moved from one key to another
-				else if (previousKey != null && currentKey != previousKey)
+				int history = me.getHistorySize();
+				for (int h = 0; h <= history; ++h)
 				{
-					currentKey.setKeyPressed(true);
-					previousKey.setKeyPressed(false);
-					previousKey = currentKey;
-
-					if (showPopupKey)
+					long time = h < history ? me.getHistoricalEventTime(h) : me.getEventTime();
+					for (int i = 0; i < me.getPointerCount(); ++i)
 					{
-						// adjust location and text for popup key accordingly
-						if (currentKey.getType() == KeyboardEvent.TYPE_ALPHA)
-							popupKey.renderAbove(currentKey);
+						int pid = me.getPointerId(i);
+						if (pid >= MAX_POINTERS || pointerState[pid] != POINTER_DOWN)
+							continue;
+						if (h < history)
+							pointerMove(pid, findKeyIndex(me.getHistoricalX(i, h), me.getHistoricalY(i, h)), time);
 						else
-							popupKey.renderAbove(null); // make previous popup disappear
+							pointerMove(pid, findKeyIndex(me.getX(i), me.getY(i)), time);
 					}
 				}
-
 				break;
 
-			/*
-			 * The critical work is done here (finish with a callback to the Activity using
-			 * onKeystroke)
-			 */
 			case MotionEvent.ACTION_UP:
+			case MotionEvent.ACTION_POINTER_UP:
 
-				if (currentKey != null && previousKey != null)
+				if (id < MAX_POINTERS && pointerState[id] == POINTER_DOWN)
 				{
-					String keyText = currentKey.getText();
-					int charCode = currentKey.getCharCode(); // default
-					int type = currentKey.getType(); // default
-					currentKey.setKeyPressed(false);
-					previousKey.setKeyPressed(false);
-					if (showPopupKey)
-						popupKey.renderAbove(null);
-					timeStampFingerUp = System.currentTimeMillis();
-
-					// callback to the activity implementing OnKeystrokeListener
-					onKeystrokeListener.onKeystroke(new KeyboardEvent(keyText, charCode, type, timeStampFingerDown,
-							timeStampFingerUp));
-
-					currentKey = null;
-					previousKey = null;
+					// the key under the finger as it lifts
+					pointerMove(id, findKeyIndex(me.getX(index), me.getY(index)), me.getEventTime());
+					if (pointerState[id] == POINTER_DOWN)
+						pointerUp(id, me);
 				}
 				break;
+
+			case MotionEvent.ACTION_CANCEL:
+
+				// abort the fingers still down; the keystrokes already made are passed on
+				for (int pid = 0; pid < MAX_POINTERS; ++pid)
+					if (pointerState[pid] == POINTER_DOWN)
+						pointerMove(pid, -1, me.getEventTime());
+				break;
 		}
 
-		invalidate(); // refresh the keyboard L&F
+		// refresh the keyboard L&F: only the keys that changed, if any
+		boolean redrawn = !dirty.isEmpty();
+		if (redrawn)
+		{
+			invalidate(dirty);
+			dirty.setEmpty();
+			++redrawCount;
+		} else
+			++redrawsAvoided;
+
+		// a press or release that changed nothing on the screen has no frame to wait for
+		if (pressOrRelease && (redrawn || keystrokeSent))
+			waitForFrame();
 		return true;
 	}
 
+	private void pointerDown(int id, int k, MotionEvent me)
+	{
+		if (k < 0)
+			return; // the touch is in the margin
+
+		haptics.request(key[k].getType()); // returns at once
+		setKeyPressed(k, true);
+		pointerState[id] = POINTER_DOWN;
+		pointerKey[id] = k;
+		pointerOrder[id] = nextPointerOrder++;
+
+		// time of the hardware event (monotonic), not of this handler
+		pointerDownTime[id] = me.getEventTime();
+		recordDispatch();
+		showPopupKey(id);
+	}
+
+	/*
+	 * The finger has moved to key k (-1 = a non-key area of the keyboard) at the given time (uptime,
+	 * ms). Moving off the keys aborts the keystroke.
+	 */
+	private void pointerMove(int id, int k, long time)
+	{
+		if (k == pointerKey[id])
+			return;
+
+		logCrossing(id, k, time);
+		releaseKey(id);
+		if (k < 0)
+		{
+			pointerState[id] = POINTER_FREE;
+			if (popupPointer == id)
+				showPopupKey(-1);
+			emitKeystrokes(); // keystrokes waiting for this one can go
+			return;
+		}
+
+		setKeyPressed(k, true);
+		pointerKey[id] = k;
+		if (popupPointer == id)
+			showPopupKey(id);
+	}
+
+	private void pointerUp(int id, MotionEvent me)
+	{
+		releaseKey(id);
+		pointerState[id] = POINTER_FREE;
+		addWaiting(id, me.getEventTime());
+		if (popupPointer == id)
+			showPopupKey(-1);
+		recordDispatch();
+		emitKeystrokes();
+	}
+
+	// release the key under a finger, unless another finger is on it too
+	private void releaseKey(int id)
+	{
+		for (int pid = 0; pid < MAX_POINTERS; ++pid)
+			if (pid != id && pointerState[pid] == POINTER_DOWN && pointerKey[pid] == pointerKey[id])
+				return;
+		setKeyPressed(pointerKey[id], false);
+	}
+
+	// add the keystroke of a lifted finger to the waiting keystrokes, in the order of going down
+	private void addWaiting(int id, long upTime)
+	{
+		if (waitingCount == waitingKey.length) // (only if a finger is held through many keystrokes)
+		{
+			waitingKey = Arrays.copyOf(waitingKey, 2 * waitingCount);
+			waitingPointer = Arrays.copyOf(waitingPointer, 2 * waitingCount);
+			waitingOrder = Arrays.copyOf(waitingOrder, 2 * waitingCount);
+			waitingDownTime = Arrays.copyOf(waitingDownTime, 2 * waitingCount);
+			waitingUpTime = Arrays.copyOf(waitingUpTime, 2 * waitingCount);
+		}
+		int n = waitingCount++;
+		while (n > 0 && waitingOrder[n - 1] > pointerOrder[id])
+		{
+			waitingKey[n] = waitingKey[n - 1];
+			waitingPointer[n] = waitingPointer[n - 1];
+			waitingOrder[n] = waitingOrder[n - 1];
+			waitingDownTime[n] = waitingDownTime[n - 1];
+			waitingUpTime[n] = waitingUpTime[n - 1];
+			--n;
+		}
+		waitingKey[n] = pointerKey[id];
+		waitingPointer[n] = id;
+		waitingOrder[n] = pointerOrder[id];
+		waitingDownTime[n] = pointerDownTime[id];
+		waitingUpTime[n] = upTime;
+	}
+
+	/*
+	 * Pass the waiting keystrokes to the activity, in the order their fingers went down, stopping
+	 * at a keystroke that a finger still down went down before (this is the critical work, a
+	 * callback to the activity using onKeystroke).
+	 */
+	private void emitKeystrokes()
+	{
+		int emitted = 0;
+		while (emitted < waitingCount)
+		{
+			for (int pid = 0; pid < MAX_POINTERS; ++pid)
+				if (pointerState[pid] == POINTER_DOWN && pointerOrder[pid] < waitingOrder[emitted])
+				{
+					removeWaiting(emitted);
+					return;
+				}
+
+			Key k = key[waitingKey[emitted]];
+			onKeystrokeListener.onKeystroke(new KeyboardEvent(k.getText(), k.getCharCode(), k.getType(),
+					waitingDownTime[emitted], waitingUpTime[emitted], waitingPointer[emitted]));
+			latencyMonitor.record(LatencyMonitor.HANDLER, LatencyMonitor.uptimeNanos() - touchNanos);
+			keystrokeSent = true;
+			++emitted;
+		}
+		removeWaiting(emitted);
+	}
+
+	// remove the first n waiting keystrokes
+	private void removeWaiting(int n)
+	{
+		if (n == 0)
+			return;
+		waitingCount -= n;
+		System.arraycopy(waitingKey, n, waitingKey, 0, waitingCount);
+		System.arraycopy(waitingPointer, n, waitingPointer, 0, waitingCount);
+		System.arraycopy(waitingOrder, n, waitingOrder, 0, waitingCount);
+		System.arraycopy(waitingDownTime, n, waitingDownTime, 0, waitingCount);
+		System.arraycopy(waitingUpTime, n, waitingUpTime, 0, waitingCount);
+	}
+
+	// show the popup key above the key under a finger (-1 = hide the popup key)
+	private void showPopupKey(int id)
+	{
+		popupPointer = id;
+		if (!showPopupKey)
+			return;
+		int k = id >= 0 && key[pointerKey[id]].getType() == KeyboardEvent.TYPE_ALPHA ? pointerKey[id] : -1;
+		if (k == popupShownKey)
+			return;
+
+		// the popup key moves by translation, so the keyboard under it need not be redrawn
+		popupKey.renderAbove(k >= 0 ? key[k] : null); // null = no popup key
+		popupShownKey = k;
+	}
+
+	// record the dispatch latency of a key press or release
+	private void recordDispatch()
+	{
+		pressOrRelease = true;
+		latencyMonitor.record(LatencyMonitor.DISPATCH, touchNanos - eventNanos);
+	}
+
+	// add a key crossing to the log (overwriting the oldest, if the log is full)
+	private void logCrossing(int id, int k, long time)
+	{
+		int n = (int)(crossingCount++ % CROSSING_LOG_SIZE);
+		crossingPointer[n] = id;
+		crossingFrom[n] = pointerKey[id];
+		crossingTo[n] = k;
+		crossingTime[n] = time;
+	}
+
 	/*
-	 * Return the key on which the touch event occurred. Return null if the touch event was on the
-	 * space/margins around the keys.
+	 * The log of key crossings: the moves of a finger from one key to another, or off the keys,
+	 * in the order they occurred. Crossing n (counting from 0 since the keyboard was created) is
+	 * kept until CROSSING_LOG_SIZE more crossings have occurred. Keys are given by index (-1 = no
+	 * key; see getKey), times by uptime in ms.
 	 */
-	private Key findKey(int x, int y)
+	public long getCrossingCount()
+	{
+		return crossingCount;
+	}
+
+	public int getCrossingPointer(long n)
+	{
+		return crossingPointer[(int)(n % CROSSING_LOG_SIZE)];
+	}
+
+	public int getCrossingFrom(long n)
 	{
-		Key foundKey = null;
+		return crossingFrom[(int)(n % CROSSING_LOG_SIZE)];
+	}
+
+	public int getCrossingTo(long n)
+	{
+		return crossingTo[(int)(n % CROSSING_LOG_SIZE)];
+	}
+
+	public long getCrossingTime(long n)
+	{
+		return crossingTime[(int)(n % CROSSING_LOG_SIZE)];
+	}
+
+	// return the key with the given index (as in the crossing log)
+	public Key getKey(int index)
+	{
+		return key[index];
+	}
+
+	/*
+	 * Return the index of the key at a point. Return -1 if the point is on the space/margins
+	 * around the keys. This is a lookup in the hit-test grid (three array reads).
+	 */
+	private int findKeyIndex(float xArg, float yArg)
+	{
+		int x = Math.round(xArg);
+		int y = Math.round(yArg);
+		if (x < 0 || x >= hitColumn.length || y < 0 || y >= hitRow.length)
+			return -1;
+		return hitGrid[hitRow[y] * hitColumns + hitColumn[x]];
+	}
+
+	/*
+	 * Build the hit-test grid. The edges of the keys (each key covers left..right and top..bottom,
+	 * inclusive) divide the keyboard into columns and rows; within a grid cell, every pixel is on
+	 * the same key (or none). Two arrays map pixel coordinates to grid columns and rows, and the
+	 * grid holds the key for each cell -- the first key in the layout, if keys overlap (as in the
+	 * original linear search). This must be called again if the keys are moved or resized.
+	 */
+	private void buildHitGrid()
+	{
+		int width = 0;
+		int height = 0;
 		for (Key k : key)
 		{
-			if (x >= k.getLeft() && x <= k.getRight() && y >= k.getTop() && y <= k.getBottom())
-			{
-				foundKey = k;
-				break;
-			}
+			width = Math.max(width, k.getRight() + 2);
+			height = Math.max(height, k.getBottom() + 2);
+		}
+
+		// mark the pixels where a new column (row) starts
+		boolean[] columnStart = new boolean[width + 1];
+		boolean[] rowStart = new boolean[height + 1];
+		for (Key k : key)
+		{
+			columnStart[k.getLeft()] = true;
+			columnStart[k.getRight() + 1] = true;
+			rowStart[k.getTop()] = true;
+			rowStart[k.getBottom() + 1] = true;
+		}
+
+		hitColumn = new int[width];
+		int columns = 0;
+		for (int x = 0; x < width; ++x)
+		{
+			if (columnStart[x] && x > 0)
+				++columns;
+			hitColumn[x] = columns;
+		}
+		hitColumns = columns + 1;
+
+		hitRow = new int[height];
+		int rows = 0;
+		for (int y = 0; y < height; ++y)
+		{
+			if (rowStart[y] && y > 0)
+				++rows;
+			hitRow[y] = rows;
+		}
+		rows += 1;
+
+		hitGrid = new int[rows * hitColumns];
+		Arrays.fill(hitGrid, -1);
+		for (int i = key.length - 1; i >= 0; --i) // in reverse, so the first key wins an overlap
+		{
+			Key k = key[i];
+			for (int r = hitRow[k.getTop()]; r <= hitRow[k.getBottom()]; ++r)
+				for (int c = hitColumn[k.getLeft()]; c <= hitColumn[k.getRight()]; ++c)
+					hitGrid[r * hitColumns + c] = i;
 		}
-		return foundKey;
 	}
 
 	/*
@@ -0,0 +1,226 @@
+package ca.yorku.eecs.mack.softkeyboard;
+
+import java.io.BufferedReader;
+import java.io.FileReader;
+import java.io.IOException;
+import java.util.Locale;
+
+/**
+ * KeystrokeAnalyzer - input-stream error analysis, from the ordered stream of keystrokes for a phrase.
+ * <p>
+ *
+ * The MSD error rate only sees the final transcribed text, so errors that were made and then corrected (with BACKSPACE)
+ * go unnoticed. Following Soukoreff and MacKenzie (<i>CHI 2003</i>), the keystrokes of the input stream are classed as:
+ * <p>
+ *
+ * <pre>
+ *    C   = correct (characters of the transcribed text that are correct)
+ *    INF = incorrect not fixed (errors remaining in the transcribed text = the MSD)
+ *    IF  = incorrect fixed (characters entered and later erased)
+ *    F   = fixes (BACKSPACE keystrokes)
+ * </pre>
+ *
+ * where C = max(|P|, |T|) - MSD(P, T). The error rates (%) are:
+ *
+ * <pre>
+ *    total       = (INF + IF) / (C + INF + IF)
+ *    corrected   = IF / (C + INF + IF)
+ *    uncorrected = INF / (C + INF + IF)
+ * </pre>
+ *
+ * Keystrokes are processed in a single pass as they arrive (or as they are read from an sd1 file), with a growing
+ * <code>char</code> stack for the transcribed text; nothing is replayed. The MSD is computed (with
+ * <code>MSDDistance</code>) only when the statistics are requested, and only once per change. As in
+ * <code>doEndOfPhrase</code>, the transcribed text is trimmed of leading and trailing whitespace.
+ * <p>
+ *
+ * Run from the command line with a list of sd1 files, the statistics for each phrase are printed as comma-separated
+ * values.
+ */
+public class KeystrokeAnalyzer
+{
+	private static final int INITIAL_CAPACITY = 64;
+
+	private String presented = "";
+	private char[] transcribed = new char[INITIAL_CAPACITY];
+	private int length;
+	private int incorrectFixed;
+	private int fixes;
+	private int msd = -1; // -1 = not computed since the last change
+
+	/**
+	 * Start a new phrase.
+	 */
+	public void reset(String presentedArg)
+	{
+		presented = presentedArg;
+		length = 0;
+		incorrectFixed = 0;
+		fixes = 0;
+		msd = -1;
+	}
+
+	/**
+	 * Process a character keystroke.
+	 */
+	public void append(char c)
+	{
+		if (length == transcribed.length)
+		{
+			char[] bigger = new char[2 * length];
+			System.arraycopy(transcribed, 0, bigger, 0, length);
+			transcribed = bigger;
+		}
+		transcribed[length++] = c;
+		msd = -1;
+	}
+
+	/**
+	 * Process a BACKSPACE keystroke. It is a fix (F) even if there is nothing to erase.
+	 */
+	public void backspace()
+	{
+		++fixes;
+		if (length > 0)
+		{
+			--length;
+			++incorrectFixed;
+			msd = -1;
+		}
+	}
+
+	/**
+	 * Return the transcribed text (without leading or trailing whitespace).
+	 */
+	public String getTranscribed()
+	{
+		int start = 0;
+		int end = length;
+		while (start < end && transcribed[start] <= ' ')
+			++start;
+		while (end > start && transcribed[end - 1] <= ' ')
+			--end;
+		return new String(transcribed, start, end - start);
+	}
+
+	/**
+	 * Return the number of correct characters (C).
+	 */
+	public int getCorrect()
+	{
+		String t = getTranscribed();
+		return Math.max(presented.length(), t.length()) - getIncorrectNotFixed();
+	}
+
+	/**
+	 * Return the number of errors remaining in the transcribed text (INF). This is the MSD.
+	 */
+	public int getIncorrectNotFixed()
+	{
+		if (msd < 0)
+			msd = MSDDistance.distance(presented, getTranscribed());
+		return msd;
+	}
+
+	/**
+	 * Return the number of characters entered and later erased (IF).
+	 */
+	public int getIncorrectFixed()
+	{
+		return incorrectFixed;
+	}
+
+	/**
+	 * Return the number of BACKSPACE keystrokes (F).
+	 */
+	public int getFixes()
+	{
+		return fixes;
+	}
+
+	/**
+	 * Return the total error rate (%).
+	 */
+	public double getTotalErrorRate()
+	{
+		return rate(getIncorrectNotFixed() + incorrectFixed);
+	}
+
+	/**
+	 * Return the corrected error rate (%).
+	 */
+	public double getCorrectedErrorRate()
+	{
+		return rate(incorrectFixed);
+	}
+
+	/**
+	 * Return the uncorrected error rate (%).
+	 */
+	public double getUncorrectedErrorRate()
+	{
+		return rate(getIncorrectNotFixed());
+	}
+
+	private double rate(int errors)
+	{
+		return 100.0 * errors / (getCorrect() + getIncorrectNotFixed() + incorrectFixed);
+	}
+
+	// =======================================================================================================
+
+	/*
+	 * Print the statistics for each phrase in the sd1 files given on the command line. Each sd1 entry holds the
+	 * presented and transcribed phrases, then one "time, key" line per keystroke, and ends with a line of dashes.
+	 */
+	public static void main(String[] args) throws IOException
+	{
+		if (args.length == 0)
+		{
+			System.out.println("usage: java KeystrokeAnalyzer file.sd1 ...");
+			System.exit(1);
+		}
+
+		System.out.println("File,Presented,C,INF,IF,F,TotalErrorRate(%),CorrectedErrorRate(%),"
+				+ "UncorrectedErrorRate(%)");
+		KeystrokeAnalyzer ka = new KeystrokeAnalyzer();
+		for (String file : args)
+		{
+			BufferedReader in = new BufferedReader(new FileReader(file));
+			try
+			{
+				int lineInEntry = 0;
+				String line;
+				while ((line = in.readLine()) != null)
+				{
+					if (line.startsWith("-----"))
+					{
+						System.out.printf(Locale.CANADA, "%s,%s,%d,%d,%d,%d,%f,%f,%f\n", file, ka.presented,
+								ka.getCorrect(), ka.getIncorrectNotFixed(), ka.getIncorrectFixed(), ka.getFixes(),
+								ka.getTotalErrorRate(), ka.getCorrectedErrorRate(), ka.getUncorrectedErrorRate());
+						lineInEntry = 0;
+						continue;
+					}
+
+					if (lineInEntry == 0)
+						ka.reset(line);
+					else if (lineInEntry > 1) // skip the transcribed phrase; it is rebuilt from the keystrokes
+					{
+						String key = line.substring(line.indexOf(',') + 1).trim();
+						if (key.equals("Bksp"))
+							ka.backspace();
+						else if (key.equals("Space"))
+							ka.append(' ');
+						else if (key.length() == 1)
+							ka.append(Character.toLowerCase(key.charAt(0)));
+						// "Enter" (and anything else) is not part of the input stream
+					}
+					++lineInEntry;
+				}
+			} finally
+			{
+				in.close();
+			}
+		}
+	}
+}
@@ -0,0 +1,170 @@
+package ca.yorku.eecs.mack.softkeyboard;
+
+import java.util.Locale;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * LatencyMonitor - histograms of the input latency of the soft keyboard, per stage of a keystroke.
+ * <p>
+ *
+ * A touch event passes through these stages:
+ *
+ * <pre>
+ *    DISPATCH = the hardware event (MotionEvent.getEventTime) to the start of KeyboardPanel.onTouch
+ *    HANDLER  = the start of onTouch to the return of the activity's onKeystroke (finger up only)
+ *    DRAW     = the start of onTouch to the start of the window's next frame (the key highlight on finger
+ *               down, the released key and the transcribed text on finger up)
+ *    TOTAL    = the hardware event to that frame
+ * </pre>
+ *
+ * DRAW and TOTAL are recorded only for a press or release that changed something on the screen (a key, or the
+ * transcribed text); a touch that changes nothing has no frame to wait for.
+ *
+ * Times are on the monotonic uptime clock. <code>MotionEvent.getEventTime()</code> is in milliseconds of
+ * <code>SystemClock.uptimeMillis()</code>, and on Android <code>System.nanoTime()</code> reads the same clock
+ * (CLOCK_MONOTONIC) in nanoseconds, so the two can be subtracted (see {@link #uptimeNanos()} and
+ * {@link #eventNanos(long)}). DISPATCH and TOTAL are therefore only as fine as the millisecond event time.
+ * <p>
+ *
+ * Each stage has a histogram of {@link #BUCKETS} buckets of {@link #BUCKET_WIDTH} microseconds (so 0-100 ms), plus
+ * an overflow bucket, held in an <code>AtomicLongArray</code> with the sum and maximum. Recording is lock-free and
+ * allocation-free, so it can be done on the UI thread while another thread reads or exports the statistics.
+ */
+public class LatencyMonitor
+{
+	public static final int DISPATCH = 0;
+	public static final int HANDLER = 1;
+	public static final int DRAW = 2;
+	public static final int TOTAL = 3;
+	public static final int STAGES = 4;
+
+	public static final int BUCKET_WIDTH = 100; // microseconds
+	public static final int BUCKETS = 1000;
+
+	private static final String[] STAGE_NAMES = { "Dispatch", "Handler", "Draw", "Total" };
+	private static final int ROW = BUCKETS + 1; // the last bucket holds the overflow
+
+	private final AtomicLongArray counts = new AtomicLongArray(STAGES * ROW);
+	private final AtomicLongArray sums = new AtomicLongArray(STAGES); // nanoseconds
+	private final AtomicLongArray maxima = new AtomicLongArray(STAGES); // nanoseconds
+
+	/**
+	 * Return the current time on the uptime clock, in nanoseconds.
+	 */
+	public static long uptimeNanos()
+	{
+		return System.nanoTime();
+	}
+
+	/**
+	 * Return the time of a <code>MotionEvent</code> (from <code>getEventTime()</code>) in nanoseconds, on the clock of
+	 * {@link #uptimeNanos()}.
+	 */
+	public static long eventNanos(long eventTimeMillis)
+	{
+		return eventTimeMillis * 1000000L;
+	}
+
+	/**
+	 * Record the latency of a stage. Negative latencies (from the millisecond rounding of the event time) count as 0.
+	 */
+	public void record(int stage, long nanos)
+	{
+		if (nanos < 0)
+			nanos = 0;
+		long bucket = nanos / (BUCKET_WIDTH * 1000L);
+		counts.incrementAndGet(stage * ROW + (int)Math.min(bucket, BUCKETS));
+		sums.addAndGet(stage, nanos);
+		long max = maxima.get(stage);
+		while (nanos > max && !maxima.compareAndSet(stage, max, nanos))
+			max = maxima.get(stage);
+	}
+
+	/**
+	 * Return the number of latencies recorded for a stage.
+	 */
+	public long getCount(int stage)
+	{
+		long n = 0;
+		for (int k = 0; k < ROW; ++k)
+			n += counts.get(stage * ROW + k);
+		return n;
+	}
+
+	/**
+	 * Return the mean latency of a stage (ms), or 0 if none was recorded.
+	 */
+	public double getMean(int stage)
+	{
+		long n = getCount(stage);
+		return n == 0 ? 0.0 : sums.get(stage) / 1e6 / n;
+	}
+
+	/**
+	 * Return the maximum latency of a stage (ms).
+	 */
+	public double getMax(int stage)
+	{
+		return maxima.get(stage) / 1e6;
+	}
+
+	/**
+	 * Return a percentile of the latency of a stage (ms), as the upper edge of the bucket holding it. Latencies in the
+	 * overflow bucket are reported as the maximum.
+	 *
+	 * @param fraction
+	 *            the percentile, as a fraction (e.g., 0.95)
+	 */
+	public double getPercentile(int stage, double fraction)
+	{
+		long n = getCount(stage);
+		if (n == 0)
+			return 0.0;
+		long rank = Math.max(1, (long)Math.ceil(fraction * n));
+		long seen = 0;
+		for (int k = 0; k < BUCKETS; ++k)
+		{
+			seen += counts.get(stage * ROW + k);
+			if (seen >= rank)
+				return Math.min((k + 1) * BUCKET_WIDTH / 1000.0, getMax(stage));
+		}
+		return getMax(stage);
+	}
+
+	/**
+	 * Clear the histograms.
+	 */
+	public void reset()
+	{
+		for (int k = 0; k < counts.length(); ++k)
+			counts.set(k, 0);
+		for (int s = 0; s < STAGES; ++s)
+		{
+			sums.set(s, 0);
+			maxima.set(s, 0);
+		}
+	}
+
+	/**
+	 * Return the statistics of each stage as comma-separated values (one line per stage, with a header), followed by
+	 * the non-empty buckets of the histograms.
+	 */
+	public String toCSV()
+	{
+		StringBuilder sb = new StringBuilder("Stage,Count,Mean(ms),Median(ms),P95(ms),P99(ms),Max(ms)\n");
+		for (int s = 0; s < STAGES; ++s)
+			sb.append(String.format(Locale.CANADA, "%s,%d,%.3f,%.3f,%.3f,%.3f,%.3f\n", STAGE_NAMES[s], getCount(s),
+					getMean(s), getPercentile(s, 0.5), getPercentile(s, 0.95), getPercentile(s, 0.99), getMax(s)));
+
+		sb.append("\nStage,Bucket(ms),Count\n");
+		for (int s = 0; s < STAGES; ++s)
+			for (int k = 0; k < ROW; ++k)
+			{
+				long n = counts.get(s * ROW + k);
+				if (n != 0)
+					sb.append(String.format(Locale.CANADA, "%s,%s%.1f,%d\n", STAGE_NAMES[s], k == BUCKETS ? ">=" : "",
+							k * BUCKET_WIDTH / 1000.0, n));
+			}
+		return sb.toString();
+	}
+}
@@ -1,5 +1,7 @@
 package ca.yorku.eecs.mack.softkeyboard;
 
+import java.util.Iterator;
+
 /**
  * MSD -- Minimum String Distance -- a class to generate various statistics related to the lexical distance between two
  * strings. Includes a main method as a demonstration.
@@ -72,6 +74,7 @@ public class MSD
 {
 	private String s1, s2;
 	private int[][] d;
+	private AlignmentDag dag;
 
 	/**
 	 * Create an MSD object.
@@ -101,12 +104,6 @@ public class MSD
 		d = new int[s1.length() + 1][s2.length() + 1];
 		int i, j;
 
-		if (s1.length() == 0 || s2.length() == 0)
-		{
-			d[s1.length()][s2.length()] = Math.max(s1.length(), s2.length());
-			return;
-		}
-
 		for (i = 0; i < s1.length() + 1; i++)
 			d[i][0] = i;
 
@@ -158,6 +155,36 @@ public class MSD
 		return d[s1.length()][s2.length()];
 	}
 
+	/**
+	 * Return an integer equal to the minimum distance between two strings, without building the MSD matrix.
+	 * 
+	 * Use this when only the distance is needed (e.g., when re-scoring many phrase pairs). The value is the same as
+	 * <code>new MSD(s1, s2).getMSD()</code>, but it is computed with a bit-parallel algorithm in
+	 * <code>MSDDistance</code>.
+	 * <p>
+	 * 
+	 * @return an <code>int</code> equal to the minimum string distance.
+	 */
+	public static int getMSD(String s1, String s2)
+	{
+		return MSDDistance.distance(s1, s2);
+	}
+
+	/**
+	 * Return true if the minimum distance between two strings is at most <code>k</code>.
+	 * 
+	 * Use this to screen phrase pairs against a threshold (e.g., to flag a participant who entered the wrong phrase).
+	 * Only the diagonals of the MSD matrix within &plusmn;k are computed (Ukkonen's banded algorithm), and the
+	 * computation stops as soon as the threshold is exceeded, so the cost is O(k) per character of the shorter string.
+	 * <p>
+	 * 
+	 * @return true if <code>getMSD(s1, s2) &lt;= k</code>
+	 */
+	public static boolean withinDistance(String s1, String s2, int k)
+	{
+		return MSDDistance.withinDistance(s1, s2, k, false);
+	}
+
 	/**
 	 * Returns the S1 string
 	 */
@@ -309,16 +336,62 @@ public class MSD
 		return doAlignments(s1, s2, d, s1.length(), s2.length());
 	}
 
+	/**
+	 * Returns an iterator that produces the pairs of alignment strings one at a time, as they are asked for.
+	 * 
+	 * This provides the same alignments as <code>getAlignments()</code> (though not in the same order), but builds
+	 * each one only when <code>next()</code> is called. Memory use is independent of the number of alignments. See
+	 * <code>AlignmentIterator</code>.
+	 * <p>
+	 * 
+	 * @return an iterator over <code>StringPair</code>s containing pairs of alignment strings
+	 */
+	public Iterator<StringPair> alignmentIterator()
+	{
+		return new AlignmentIterator<StringPair>(getAlignmentDag())
+		{
+			private final char[] a1 = new char[s1.length() + s2.length()];
+			private final char[] a2 = new char[s1.length() + s2.length()];
+
+			protected StringPair create(char[] e, int from, int to)
+			{
+				int x = 0, y = 0;
+				for (int k = from; k < to; ++k)
+				{
+					char c = e[k];
+					a1[k - from] = c == 'i' ? '-' : s1.charAt(x++);
+					a2[k - from] = c == 'd' ? '-' : s2.charAt(y++);
+				}
+				StringPair sp = new StringPair();
+				sp.s1 = new String(a1, 0, to - from);
+				sp.s2 = new String(a2, 0, to - from);
+				return sp;
+			}
+		};
+	}
+
+	/**
+	 * Returns the graph of optimal alignment paths through the MSD matrix.
+	 * 
+	 * The graph holds, for each cell of the matrix, the steps lying on an optimal path and the number of optimal paths
+	 * reaching the cell. See <code>AlignmentDag</code>.
+	 */
+	public AlignmentDag getAlignmentDag()
+	{
+		if (dag == null)
+			dag = new AlignmentDag(d, new MSD2.TwoStringCollection(s1, s2));
+		return dag;
+	}
+
 	/**
 	 * Returns the mean size of the alignment string as a double
+	 * 
+	 * The mean is computed over all optimal alignments by counting paths through the MSD matrix (see
+	 * <code>AlignmentDag</code>), so the alignments themselves are never built.
 	 */
 	public double meanAlignmentSize()
 	{
-		StringPair[] sp = getAlignments();
-		double n = 0.0;
-		for (int i = 0; i < sp.length; ++i)
-			n += sp[i].s1.length();
-		return n / sp.length;
+		return getAlignmentDag().getMeanAlignmentLength();
 	}
 
 	/**
@@ -333,4 +406,24 @@ public class MSD
 	{
 		return getMSD() / meanAlignmentSize() * 100.0;
 	}
+
+	/**
+	 * Returns the mean size of the alignment strings of two strings, computed in a reusable workspace (see
+	 * <code>MSDWorkspace</code>), without allocating an MSD object or its matrix.
+	 */
+	public static double meanAlignmentSize(String s1, String s2, MSDWorkspace w)
+	{
+		w.compute(s1, s2);
+		return w.getMeanAlignmentLength();
+	}
+
+	/**
+	 * Returns the new-and-improved MSD error rate of two strings, computed in a reusable workspace (see
+	 * <code>MSDWorkspace</code>). The value is the same as <code>new MSD(s1, s2).getErrorRateNew()</code>.
+	 */
+	public static double getErrorRateNew(String s1, String s2, MSDWorkspace w)
+	{
+		int msd = w.compute(s1, s2);
+		return msd / w.getMeanAlignmentLength() * 100.0;
+	}
 }
@@ -24,6 +24,35 @@ public class MSD2
 
 	static final int     MAX_ALIGNMENT_COUNT   = 200;
 	static final boolean OUTPUT_PURGE_MESSAGES = true;
+	static final long    SAMPLING_SEED         = 2004L;
+
+	/**
+	 * The explanation codes held by an {@link Alignment}.  The value of
+	 * each code is its letter in the explanation string.
+	 */
+	public static final byte OP_CORRECT       = 'c';
+	public static final byte OP_INSERTION     = 'i';
+	public static final byte OP_DELETION      = 'd';
+	public static final byte OP_SUBSTITUTION  = 'x';
+	public static final byte OP_TRANSPOSITION = 't';
+
+	/**
+	 * Marks a missing element in the aligned presented or transcribed text.
+	 */
+	public static final int GAP = -1;
+
+	// Strings for single ASCII characters, so items need not be allocated
+	private static final String[] CHAR_STRINGS = new String[128];
+	static
+	{
+		for(int i = 0; i < CHAR_STRINGS.length; i++)
+			CHAR_STRINGS[i] = String.valueOf((char)i);
+	}
+
+	static String charString(char c)
+	{
+		return c < CHAR_STRINGS.length ? CHAR_STRINGS[c] : String.valueOf(c);
+	}
 
 
 	//-------------------------------------------------------------------------
@@ -52,6 +81,19 @@ public class MSD2
 		public int    getTransposedDistance(int p, int t);
 	}
 
+	/**
+	 * An {@link MSDCollection} whose elements are primitive tokens (e.g.,
+	 * characters, or the ids of interned words).  Elements are equal if
+	 * and only if their tokens are equal, so the MSD and alignments can be
+	 * calculated without creating a String for each element.  Tokens are
+	 * never negative.
+	 */
+	public static interface TokenCollection extends MSDCollection
+	{
+		public int    getPresentedToken(int index);
+		public int    getTranscribedToken(int index);
+	}
+
 
 	//----------------------------------------------------------
 	// Here follow some useful implementations of MSDCollection
@@ -62,7 +104,7 @@ public class MSD2
 	 * simple Java Strings, and the MSD compares the individual characters
 	 * within the strings.
 	 */
-	public static class TwoStringCollection implements MSDCollection
+	public static class TwoStringCollection implements TokenCollection
 	{
 		String P;
 		String T;
@@ -94,7 +136,12 @@ public class MSD2
 
 		public String getPresentedItem(int index)
 		{
-			return "" + P.charAt(index);
+			return charString(P.charAt(index));
+		}
+
+		public int getPresentedToken(int index)
+		{
+			return P.charAt(index);
 		}
 
 		public int getTranscribedSize()
@@ -104,7 +151,12 @@ public class MSD2
 
 		public String getTranscribedItem(int index)
 		{
-			return "" + T.charAt(index);
+			return charString(T.charAt(index));
+		}
+
+		public int getTranscribedToken(int index)
+		{
+			return T.charAt(index);
 		}
 
 		public int getItemDistance(int p, int t)
@@ -140,82 +192,177 @@ public class MSD2
 
 	/**
 	 * An MSDCollection object where the presented and transcribed texts are
-	 * Vectors of Strings (viz. a list of words) where the individual elements
-	 * considered in the MSD are the whole strings.  This is useful for
-	 * calculating the word-level MSD.
+	 * lists of words, where the individual elements considered in the MSD are
+	 * the whole words.  This is useful for calculating the word-level MSD.
+	 * The words are interned into a {@link TokenDictionary}, so they are
+	 * compared as integer tokens rather than with String.equals.  Share one
+	 * dictionary across a corpus to intern each word only once.
 	 */
-	public static class WordCollection implements MSDCollection
+	public static class WordCollection implements TokenCollection
 	{
-		Vector<String> P;
-		Vector<String> T;
+		TokenDictionary Dictionary;
+		int[] P;
+		int[] T;
 		boolean AllowTransposes = false;
 
 		public WordCollection(Vector<String> PresentedData, Vector<String> TranscribedData)
 		{
-			P = PresentedData;
-			T = TranscribedData;
+			this(PresentedData, TranscribedData, false);
 		}
 
 		public WordCollection(Vector<String> PresentedData,
 				Vector<String> TranscribedData,
 				boolean transposes)
 		{
-			P = PresentedData;
-			T = TranscribedData;
+			Dictionary = new TokenDictionary();
+			P = intern(Dictionary, PresentedData);
+			T = intern(Dictionary, TranscribedData);
 			AllowTransposes = transposes;
 		}
 
+		public WordCollection(String PresentedText,
+				String TranscribedText,
+				TokenDictionary dictionary,
+				boolean transposes)
+		{
+			Dictionary = dictionary;
+			P = dictionary.tokenize(PresentedText);
+			T = dictionary.tokenize(TranscribedText);
+			AllowTransposes = transposes;
+		}
+
+		private static int[] intern(TokenDictionary dictionary, Vector<String> words)
+		{
+			int[] tokens = new int[words.size()];
+			for(int i = 0; i < tokens.length; i++)
+				tokens[i] = dictionary.intern(words.get(i));
+			return tokens;
+		}
+
 		//----------------------------------
 		// implement the required interface
 		//----------------------------------
 
 		public int getPresentedSize()
 		{
-			return P.size();
+			return P.length;
 		}
 
 		public String getPresentedItem(int index)
 		{
-			return P.get(index);
+			return Dictionary.getWord(P[index]);
+		}
+
+		public int getPresentedToken(int index)
+		{
+			return P[index];
 		}
 
 		public int getTranscribedSize()
 		{
-			return T.size();
+			return T.length;
 		}
 
 		public String getTranscribedItem(int index)
 		{
-			return T.get(index);
+			return Dictionary.getWord(T[index]);
+		}
+
+		public int getTranscribedToken(int index)
+		{
+			return T[index];
 		}
 
 		public int getItemDistance(int p, int t)
 		{
-			String Pstring = P.get(p);
-			String Tstring = T.get(t);
+			return P[p] == T[t] ? 0 : 1;
+		}
 
-			if(Pstring.equals(Tstring))
-				return 0;
-			else
+		public int getTransposedDistance(int p, int t)
+		{
+			if(!AllowTransposes || p < 1 || t < 1)
+				return Infinity;
+			else if(P[p-1] == T[t] && P[p] == T[t-1])
 				return 1;
+			else
+				return Infinity;
+		}
+	}
+
+
+	/**
+	 * An MSDCollection where the presented and transcribed texts are arrays
+	 * of primitive tokens (characters, or the ids of interned words).  The
+	 * items are the tokens, written as Strings.
+	 */
+	public static class TokenArrayCollection implements TokenCollection
+	{
+		int[] P;
+		int[] T;
+		boolean AllowTransposes = false;
+
+		public TokenArrayCollection(int[] PresentedTokens, int[] TranscribedTokens)
+		{
+			P = PresentedTokens;
+			T = TranscribedTokens;
+		}
+
+		public TokenArrayCollection(int[] PresentedTokens,
+				int[] TranscribedTokens,
+				boolean transposes)
+		{
+			P = PresentedTokens;
+			T = TranscribedTokens;
+			AllowTransposes = transposes;
+		}
+
+		//----------------------------------
+		// implement the required interface
+		//----------------------------------
+
+		public int getPresentedSize()
+		{
+			return P.length;
+		}
+
+		public String getPresentedItem(int index)
+		{
+			return String.valueOf(P[index]);
+		}
+
+		public int getPresentedToken(int index)
+		{
+			return P[index];
+		}
+
+		public int getTranscribedSize()
+		{
+			return T.length;
+		}
+
+		public String getTranscribedItem(int index)
+		{
+			return String.valueOf(T[index]);
+		}
+
+		public int getTranscribedToken(int index)
+		{
+			return T[index];
+		}
+
+		public int getItemDistance(int p, int t)
+		{
+			return P[p] == T[t] ? 0 : 1;
 		}
 
 		public int getTransposedDistance(int p, int t)
 		{
-			if(!AllowTransposes || p < 0 || t < 0)
+			if(!AllowTransposes || p < 1 || t < 1)
 				return Infinity;
+			else if(P[p-1] == T[t] && P[p] == T[t-1])
+				return 1;
 			else
-			{
-				String p1 = P.get(p-1);
-				String p2 = P.get(p);
-				String t1 = T.get(t-1);
-				String t2 = T.get(t);
-
-				if(p1.equals(t2) && p2.equals(t1))
-					return 1;
-				else
-					return Infinity;
-			}
+				return Infinity;
 		}
 	}
 
@@ -229,7 +376,8 @@ public class MSD2
 
 	/**
 	 * This constructor takes an instance of a {@link MSD2.MSDCollection}
-	 * object, and calculates the Minimum String Distance.
+	 * object, and calculates the Minimum String Distance.  The alignments
+	 * are found later, the first time they are asked for.
 	 *
 	 * @see MSD2.MSDCollection
 	 * @param c is the source of data for the MSD algorithm
@@ -239,7 +387,6 @@ public class MSD2
 	{
 		C = c;
 		calculateD();
-		findAlignments();
 	}
 
 
@@ -408,6 +555,49 @@ public class MSD2
 		int y = D[0].length;
 		return D[x-1][y-1];
 	}
+
+	/**
+	 * This function returns the minimum string distance (MSD) between two
+	 * strings without calculating the D matrix or the alignments.  It gives
+	 * the same value as <code>new MSD2(p, t, transpositions).getMSD()</code>
+	 * but uses the bit-parallel algorithm in {@link MSDDistance}.
+	 *
+	 * @param PresentedText the presented text string
+	 * @param TranscribedText the transcribed text string
+	 * @param TranspositionsAllowed a flag the specifies whether the MSD
+	 *        algorithm should allow transpositions
+	 * @return the MSD of the two strings
+	 */
+	public static int getMSD(String PresentedText,
+			String TranscribedText,
+			boolean TranspositionsAllowed)
+	{
+		return MSDDistance.distance(PresentedText, TranscribedText,
+				TranspositionsAllowed);
+	}
+
+	/**
+	 * This function returns the word-level minimum string distance between
+	 * two phrases (i.e. the number of word insertions, deletions and
+	 * substitutions) without calculating the D matrix or the alignments.
+	 * The words are interned into the given dictionary; share one dictionary
+	 * across a corpus so each word is interned only once.
+	 *
+	 * @param PresentedText the presented phrase
+	 * @param TranscribedText the transcribed phrase
+	 * @param Dictionary the dictionary of words
+	 * @param TranspositionsAllowed a flag the specifies whether the MSD
+	 *        algorithm should allow transpositions of words
+	 * @return the word-level MSD of the two phrases
+	 */
+	public static int getWordMSD(String PresentedText,
+			String TranscribedText,
+			TokenDictionary Dictionary,
+			boolean TranspositionsAllowed)
+	{
+		return MSDDistance.distance(Dictionary.tokenize(PresentedText),
+				Dictionary.tokenize(TranscribedText), TranspositionsAllowed);
+	}
 	
 	/**
 	 * This function calculates the D matrix using the minimum string distance
@@ -462,49 +652,60 @@ public class MSD2
 
 	/**
 	 * The purpose of this sub-class is to hold the information for one
-	 * alignment.
+	 * alignment.  The explanation is held as a byte array (one of the OP_
+	 * codes per element) and the aligned texts as arrays of indices into
+	 * the presented and transcribed data, so no Strings are created unless
+	 * the String accessors are used.
 	 */
 	public class Alignment
 	{
-		String E;          // the explanation string
+		byte[] O;          // the explanation (OP_ codes)
+		String E;          // the explanation string (made when first asked for)
 
-		Vector<String> P;  // the aligned presented text (a vector of Strings)
-		Vector<String> T;  // the aligned transcribed text (a vector of Strings)
+		int[] P;           // the aligned presented text (indices, or GAP)
+		int[] T;           // the aligned transcribed text (indices, or GAP)
 
 		boolean[][] Path;  // marks the alignment path through the MSD matrix
 
 		public Alignment()
 		{
-			E = "";
+			this(new byte[0]);
+		}
+
+		public Alignment(String explanation)
+		{
+			O = new byte[explanation.length()];
+			for(int i = 0; i < O.length; i++)
+				O[i] = (byte)explanation.charAt(i);
+			E = explanation;
 			Path = null;
 		}
 
-		public Alignment(PlaceHolder ph)
+		public Alignment(byte[] ops)
 		{
-			E = ph.E;
+			O = ops;
 			Path = null;
 		}
 
 		public String toString()
 		{
-			return E;
+			return getExplanation();
 		}
 
 
 		//-----------------------------------------------------------------------
 		// This section calculates several incidental values, including the
-		// aligned presented and transcribed text Vectors, and the Path
-		// array.
+		// aligned presented and transcribed texts, and the Path array.
 		//
-		// The explanation string is synonymous with a unique path through the
-		// MSD 'D' matrix.  We use the explanation string to calculate the
-		// aligned presented and transcribed data.  These are Vectors containing
-		// the elements of the presented and transcribed data, that align with
-		// the explanation string (the character '-' in inserted for missing
+		// The explanation is synonymous with a unique path through the
+		// MSD 'D' matrix.  We use the explanation to calculate the
+		// aligned presented and transcribed data.  These are arrays holding
+		// the indices of the elements of the presented and transcribed data
+		// that align with the explanation (GAP, shown as '-', marks missing
 		// elements).  For example:
 		//
-		//    Presented Text:      aaa bbb  -  ddd fff ggg
-		//    Transcribed Text:    aaa  -  ccc eee ggg fff
+		//    Presented Text:      aaa  -  ccc ddd fff ggg
+		//    Transcribed Text:    aaa bbb  -  eee ggg fff
 		//    Explanation String:   c   i   d   x   t   t
 		//
 		// The other data structure that is calculated is the path matrix.  This
@@ -520,62 +721,38 @@ public class MSD2
 
 		private void calculatePresentedAndTranscribed()
 		{
-			int pres_index  = 0,
-					trans_index = 0,
-					i;
+			int x = 0,    // the position in the presented text
+				y = 0;    // the position in the transcribed text
 
-			int x = D.length;
-			int y = D[0].length;
+			Path = new boolean[D.length][D[0].length];
+			Path[0][0] = true;
 
-			Path = new boolean[x][y];
-			Path[x-1][y-1] = true;
+			P = new int[O.length];
+			T = new int[O.length];
 
-			P = new Vector<String>();
-			T = new Vector<String>();
-
-			for(i = 0; i < E.length(); i += 1)
+			for(int i = 0; i < O.length; i += 1)
 			{
-				String e = getExplanation(i);
-
-				x = i - pres_index;
-				y = i - trans_index;
-
-				Path[x][y] = true;
-
-				// c = correct
-				if(e.equals("c"))
-				{
-					P.add(getPresentedItem(x));
-					T.add(getTranscribedItem(y));
-				}
-
-				// i = insertion
-				else if(e.equals("i"))
+				switch(O[i])
 				{
-					P.add("-"); pres_index += 1;
-					T.add(getTranscribedItem(y));
+					// i = insertion
+					case OP_INSERTION:
+						P[i] = GAP;
+						T[i] = y++;
+						break;
+
+					// d = deletion
+					case OP_DELETION:
+						P[i] = x++;
+						T[i] = GAP;
+						break;
+
+					// c = correct, x = substitution, t = transposition
+					default:
+						P[i] = x++;
+						T[i] = y++;
 				}
 
-				// d = deletion
-				else if(e.equals("d"))
-				{
-					P.add(getPresentedItem(x));
-					T.add("-"); trans_index += 1;
-				}
-
-				// x = substitution
-				else if(e.equals("x"))
-				{
-					P.add(getPresentedItem(x));
-					T.add(getTranscribedItem(y));
-				}
-
-				// t = transposition
-				else if(e.equals("t"))
-				{
-					P.add(getPresentedItem(x));
-					T.add(getTranscribedItem(y));
-				}
+				Path[x][y] = true;
 			}
 		}
 
@@ -591,8 +768,7 @@ public class MSD2
 		 */
 		public int getAlignedPresentedSize()
 		{
-			calc();
-			return P.size();
+			return O.length;
 		}
 
 		/**
@@ -605,7 +781,55 @@ public class MSD2
 		public String getAlignedPresentedItem(int index)
 		{
 			calc();
-			return P.get(index);
+			return P[index] == GAP ? "-" : getPresentedItem(P[index]);
+		}
+
+		/**
+		 * Returns the index (in the presented text) of an element of the
+		 * aligned presented text.
+		 *
+		 * @param index indicates the desired element of the aligned presented
+		 *        text
+		 * @return the index of the element, or GAP if there is none
+		 */
+		public int getAlignedPresentedIndex(int index)
+		{
+			calc();
+			return P[index];
+		}
+
+		/**
+		 * Returns a token from the aligned presented text.  The collection
+		 * must be a {@link TokenCollection}.
+		 *
+		 * @param index indicates the desired element of the aligned presented
+		 *        text
+		 * @return the token, or GAP if there is none
+		 */
+		public int getAlignedPresentedToken(int index)
+		{
+			calc();
+			return P[index] == GAP ? GAP
+					: ((TokenCollection)C).getPresentedToken(P[index]);
+		}
+
+		/**
+		 * Returns the aligned presented text as characters, with '-' for
+		 * missing elements.  The collection must be a
+		 * {@link TokenCollection} of characters (e.g.,
+		 * {@link TwoStringCollection}).
+		 *
+		 * @return the aligned presented text
+		 */
+		public char[] getAlignedPresentedChars()
+		{
+			char[] c = new char[O.length];
+			for(int i = 0; i < c.length; i++)
+			{
+				int token = getAlignedPresentedToken(i);
+				c[i] = token == GAP ? '-' : (char)token;
+			}
+			return c;
 		}
 
 		/**
@@ -615,8 +839,7 @@ public class MSD2
 		 */
 		public int getAlignedTranscribedSize()
 		{
-			calc();
-			return T.size();
+			return O.length;
 		}
 
 		/**
@@ -629,7 +852,55 @@ public class MSD2
 		public String getAlignedTranscribedItem(int index)
 		{
 			calc();
-			return P.get(index);
+			return T[index] == GAP ? "-" : getTranscribedItem(T[index]);
+		}
+
+		/**
+		 * Returns the index (in the transcribed text) of an element of the
+		 * aligned transcribed text.
+		 *
+		 * @param index indicates the desired element of the aligned
+		 *        transcribed text
+		 * @return the index of the element, or GAP if there is none
+		 */
+		public int getAlignedTranscribedIndex(int index)
+		{
+			calc();
+			return T[index];
+		}
+
+		/**
+		 * Returns a token from the aligned transcribed text.  The collection
+		 * must be a {@link TokenCollection}.
+		 *
+		 * @param index indicates the desired element of the aligned
+		 *        transcribed text
+		 * @return the token, or GAP if there is none
+		 */
+		public int getAlignedTranscribedToken(int index)
+		{
+			calc();
+			return T[index] == GAP ? GAP
+					: ((TokenCollection)C).getTranscribedToken(T[index]);
+		}
+
+		/**
+		 * Returns the aligned transcribed text as characters, with '-' for
+		 * missing elements.  The collection must be a
+		 * {@link TokenCollection} of characters (e.g.,
+		 * {@link TwoStringCollection}).
+		 *
+		 * @return the aligned transcribed text
+		 */
+		public char[] getAlignedTranscribedChars()
+		{
+			char[] c = new char[O.length];
+			for(int i = 0; i < c.length; i++)
+			{
+				int token = getAlignedTranscribedToken(i);
+				c[i] = token == GAP ? '-' : (char)token;
+			}
+			return c;
 		}
 
 
@@ -644,7 +915,7 @@ public class MSD2
 		 */
 		public int getExplanationLength()
 		{
-			return E.length();
+			return O.length;
 		}
 
 		/**
@@ -662,6 +933,13 @@ public class MSD2
 		 */
 		public String getExplanation()
 		{
+			if(E == null)
+			{
+				char[] e = new char[O.length];
+				for(int i = 0; i < e.length; i++)
+					e[i] = (char)O[i];
+				E = new String(e);
+			}
 			return E;
 		}
 
@@ -683,7 +961,29 @@ public class MSD2
 		 */
 		public String getExplanation(int index)
 		{
-			return "" + E.charAt(index);
+			return charString((char)O[index]);
+		}
+
+		/**
+		 * Returns the whole explanation as OP_ codes (the byte value of each
+		 * code is its explanation character).  The array is not copied.
+		 *
+		 * @return the explanation
+		 */
+		public byte[] getOps()
+		{
+			return O;
+		}
+
+		/**
+		 * Returns one OP_ code from the explanation.
+		 *
+		 * @param index indicates which element of the explanation is desired
+		 * @return the requested OP_ code
+		 */
+		public byte getOp(int index)
+		{
+			return O[index];
 		}
 
 
@@ -799,6 +1099,8 @@ public class MSD2
 	 */
 	public Vector<Alignment> getAlignmentVector()
 	{
+		if(A == null)
+			findAlignments();
 		return A;
 	}
 
@@ -810,7 +1112,7 @@ public class MSD2
 	 */
 	public int getAlignmentVectorSize()
 	{
-		return A.size();
+		return getAlignmentVector().size();
 	}
 
 	/**
@@ -822,53 +1124,122 @@ public class MSD2
 	 */
 	public Alignment getAlignment(int alignment)
 	{
-		return A.get(alignment);
+		return getAlignmentVector().get(alignment);
 	}
 
 	/**
-	 * Return the average alignment length.
+	 * Return the average alignment length.  This is computed over all of
+	 * the optimal alignments (using the {@link AlignmentDag}) without
+	 * enumerating them, so it is exact even when the alignment vector has
+	 * been purged.
 	 *
 	 * @return the average length of the alignments.
 	 */
 	public double getAverageAlignmentLength()
 	{
-		double retval = 0d;
+		return getAlignmentDag().getMeanAlignmentLength();
+	}
 
-		for(int i = 0; i < getAlignmentVectorSize(); i++)
-			retval += getAlignment(i).getExplanationLength();
-		return retval / (double)getAlignmentVectorSize();
+	/**
+	 * Return the minimum string distance for the data in an MSDCollection,
+	 * computed in a reusable workspace.  No MSD2 object or D matrix is
+	 * allocated, so this suits batch processing; see {@link MSDWorkspace}.
+	 *
+	 * @param c the presented and transcribed data
+	 * @param w the workspace (e.g., <code>MSDWorkspace.get()</code>)
+	 * @return the MSD
+	 */
+	public static int getMSD(MSDCollection c, MSDWorkspace w)
+	{
+		return w.compute(c);
 	}
 
+	/**
+	 * Return the average alignment length for the data in an MSDCollection,
+	 * computed in a reusable workspace (see {@link MSDWorkspace}).
+	 *
+	 * @param c the presented and transcribed data
+	 * @param w the workspace (e.g., <code>MSDWorkspace.get()</code>)
+	 * @return the average length of the alignments.
+	 */
+	public static double getAverageAlignmentLength(MSDCollection c, MSDWorkspace w)
+	{
+		w.compute(c);
+		return w.getMeanAlignmentLength();
+	}
 
-	//-----------------------------------------------------------
-	// This section uses the D matrix to generate the alignments
-	//-----------------------------------------------------------
 
-	/*
-	 * The purpose of this sub-class is to hold all of the data
-	 * necessary to remember where we are, as we traverse the
-	 * MSD matrix finding alignments.
+	//-----------------------------------------------------------------
+	// The optimal-path graph gives the alignment counts and lengths in
+	// O(nm), without enumerating the alignments
+	//-----------------------------------------------------------------
+
+	AlignmentDag G;    // the graph of optimal paths through D
+
+	/**
+	 * This function returns the graph of optimal alignment paths through
+	 * the D matrix.
+	 *
+	 * @return the optimal-path graph
+	 * @see AlignmentDag
 	 */
-	private class PlaceHolder
+	public AlignmentDag getAlignmentDag()
 	{
-		int X;      // the position in the D matrix
-		int Y;
-		String E;
+		if(G == null)
+			G = new AlignmentDag(D, C);
+		return G;
+	}
 
-		public PlaceHolder()
-		{
-			E = "";
-			X = D.length - 1;           // bottom-right corner of D
-			Y = D[0].length - 1;
-		}
 
-		public PlaceHolder(PlaceHolder ph, String e, int x, int y)
+	/**
+	 * This function returns an iterator that produces the alignments one
+	 * at a time, as they are asked for.  Unlike {@link #getAlignmentVector},
+	 * the alignments are not stored, so memory use does not depend on the
+	 * number of alignments, and none are purged.
+	 *
+	 * @return an iterator over all of the alignments
+	 * @see AlignmentIterator
+	 */
+	public Iterator<Alignment> alignmentIterator()
+	{
+		return new AlignmentIterator<Alignment>(getAlignmentDag())
 		{
-			E = e + ph.E;
-			X = x; Y = y;
-		}
+			protected Alignment create(char[] e, int from, int to)
+			{
+				byte[] ops = new byte[to - from];
+				for(int i = 0; i < ops.length; i++)
+					ops[i] = (byte)e[from + i];
+				return new Alignment(ops);
+			}
+		};
+	}
+
 
-		Alignment getAlignment() { return new Alignment(this); };
+	//-----------------------------------------------------------
+	// This section uses the D matrix to generate the alignments
+	//-----------------------------------------------------------
+
+	/**
+	 * This function draws alignments uniformly at random from the set of
+	 * all optimal alignments (with replacement, so an alignment may be
+	 * drawn more than once).  After the paths through the D matrix are
+	 * counted (once), each alignment costs O(n+m), so this is a sound way
+	 * to describe the alignments of long, noisy transcriptions that have
+	 * too many alignments to enumerate.
+	 *
+	 * @param k the number of alignments to draw
+	 * @param random the source of randomness (seed it for reproducible
+	 *        samples)
+	 * @return a Vector of k alignments
+	 * @see AlignmentDag#sampleExplanation
+	 */
+	public Vector<Alignment> sampleAlignments(int k, Random random)
+	{
+		AlignmentDag g = getAlignmentDag();
+		Vector<Alignment> v = new Vector<Alignment>(k);
+		for(int i = 0; i < k; i++)
+			v.add(new Alignment(g.sampleExplanation(random)));
+		return v;
 	}
 
 
@@ -876,95 +1247,31 @@ public class MSD2
 	 * This function generates a list of alignment strings, given
 	 * the presented and transcribed text and the MSD matrix.
 	 *
-	 * The idea is to start in the bottom-right corner of the MSD matrix
-	 * and find possible paths leading up and left to the top-left corner.
-	 * As we proceed through the MSD matrix, occasionally we find a location
-	 * where there are multiple possible paths to follow.  So we use a
-	 * stack to remember where we are so we can continue from that point later
-	 * without resorting to recursion.
+	 * Certain sets of presented & transcribed text can cause the
+	 * number of alignments to grow exponentially.  This is a problem
+	 * only for long strings that are pathologically different from
+	 * one another, that are not of the same length.  Since the number
+	 * of alignments is known in advance (from the path counts), when it
+	 * exceeds MAX_ALIGNMENT_COUNT we draw MAX_ALIGNMENT_COUNT alignments
+	 * uniformly at random instead.  A fixed seed keeps the result
+	 * reproducible.  Otherwise all of the alignments are stored.
 	 */
 	private void findAlignments()
 	{
-		// this is the result
 		A = new Vector<Alignment>();
 
-		// this is a stack that we'll use to remember where we are
-		LinkedList<PlaceHolder> stack = new LinkedList<PlaceHolder>();
-
-		// prime the stack with the start location
-		// NB!  PlaceHolder() constructer defaults to bottom-right corner of D
-		stack.addFirst(new PlaceHolder());
-
-		while(stack.size() > 0)
+		if(getAlignmentDag().getAlignmentCount() > MAX_ALIGNMENT_COUNT)
 		{
-			// Certain sets of presented & transcribed text can cause the
-			// number of alignments to grow exponentially.  This is a problem
-			// only for long strings that are pathologically different from
-			// one another, that are not of the same length.  When this
-			// happens we're going to delete every second alignment.  This
-			// should allow the alignment set to preserve some of its
-			// descriptiveness, while at the same time limiting the growth to
-			// a more managable quantity.
-			if(stack.size() > MAX_ALIGNMENT_COUNT)
-			{
-				if(OUTPUT_PURGE_MESSAGES)
-					System.err.println("'> " + MAX_ALIGNMENT_COUNT + "' in MSD, purging!");
-
-				ListIterator<PlaceHolder> i = stack.listIterator();
-
-				while(i.hasNext())
-				{
-					i.next();       // skip one
-
-					if(i.hasNext())
-					{
-						i.next();    // delete next one
-						i.remove();
-					}
-				}
-			}
-
-
-			// get the oldest element of the list
-			PlaceHolder ph = stack.removeFirst();
-
-			// the current position (x,y)
-			int x = ph.X;
-			int y = ph.Y;
+			if(OUTPUT_PURGE_MESSAGES)
+				System.err.println("'> " + MAX_ALIGNMENT_COUNT + "' in MSD, sampling!");
 
-			// if we've arrived at the top-left corner, we're done, so store
-			// the alignment path
-			if(x == 0 && y == 0)
-			{
-				A.add(ph.getAlignment());
-				continue;
-			}
-
-			if(x > 0 && y > 0)
-			{
-				// correct (matching) characters
-				if(D[x][y] == D[x-1][y-1] && C.getItemDistance(x-1,y-1) == 0)
-					stack.addLast( new PlaceHolder(ph, "c", x-1, y-1) );
-
-				// substitution error
-				if(D[x][y] == D[x-1][y-1] + 1)
-					stack.addLast( new PlaceHolder(ph, "x", x-1, y-1) );
-			}
-
-			// insertion error
-			if(y > 0 && D[x][y] == D[x][y-1] + 1)
-				stack.addLast( new PlaceHolder(ph, "i", x, y-1) );
-
-			// deletion error
-			if(x > 0 && D[x][y] == D[x-1][y] + 1)
-				stack.addLast( new PlaceHolder(ph, "d", x-1, y) );
-
-			// transposition error
-			if((x-2 >= 0) && (y-2 >= 0)
-					&&( D[x][y] - D[x-2][y-2] == C.getTransposedDistance(x-1, y-1)) )
-				stack.addLast( new PlaceHolder(ph, "tt", x-2, y-2) );
+			A = sampleAlignments(MAX_ALIGNMENT_COUNT, new Random(SAMPLING_SEED));
+			return;
+		}
 
-		}  // while
+		Iterator<Alignment> i = alignmentIterator();
+		while(i.hasNext())
+			A.add(i.next());
 	}
 
 
@@ -1135,6 +1442,7 @@ public class MSD2
 
 		BufferedReader stdin
 		= new BufferedReader(new InputStreamReader(System.in), 1);
+		TokenDictionary words = new TokenDictionary();
 
 		while(true)
 		{
@@ -1155,23 +1463,13 @@ public class MSD2
 
 			if(word_level)
 			{
-				StringTokenizer st = new StringTokenizer(p, " ");
-				Vector<String> P = new Vector<String>();
-				while(st.hasMoreTokens())
-					P.add(st.nextToken());
-
-				st = new StringTokenizer(t, " ");
-				Vector<String> T = new Vector<String>();
-				while(st.hasMoreTokens())
-					T.add(st.nextToken());
-
-				m = new MSD2(P, T, transposition);
+				m = new MSD2(new WordCollection(p, t, words, transposition));
 			}
 			else
 				m = new MSD2(p, t, transposition);
 
 			System.out.println("");
-			System.out.println("Number of Alignments: " + m.getAlignmentVectorSize());
+			System.out.println("Number of Alignments: " + m.getAlignmentDag().getExactAlignmentCount());
 			System.out.println("MSD : " + m.getMSD());
 
 			if(!output_alignments)
@@ -1180,11 +1478,12 @@ public class MSD2
 				System.out.println("");
 			}
 
-			int notmorethanten = Math.min(m.getAlignmentVectorSize(), 10);
+			// only the alignments printed are generated
+			Iterator<Alignment> alignments = m.alignmentIterator();
 
-			for(int i = 0; i < notmorethanten; i++)
+			for(int i = 0; i < 10 && alignments.hasNext(); i++)
 			{
-				Alignment a = m.getAlignment(i);
+				Alignment a = alignments.next();
 
 				if(!output_alignments)
 				{
@@ -1198,7 +1497,7 @@ public class MSD2
 				a.printAlignmentMatrix();
 			}
 
-			if(m.getAlignmentVectorSize() == 0)
+			if(m.getAlignmentDag().getAlignmentCount() == 0)
 				m.printMSDMatrix();
 			else
 			{
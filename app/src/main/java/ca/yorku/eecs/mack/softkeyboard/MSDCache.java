@@ -0,0 +1,207 @@
+package ca.yorku.eecs.mack.softkeyboard;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * MSDCache - a bounded cache of MSD results, keyed by the presented/transcribed pair.
+ * <p>
+ *
+ * Participants are given phrases drawn from a small set, and many transcriptions equal the presented text or another
+ * participant's transcription, so a study holds many repeated pairs. The cache keeps the most recently used results
+ * (<code>MSDResult</code> objects, which are immutable and so can be shared by threads) and computes the others on
+ * demand, in the calling thread's <code>MSDWorkspace</code>.
+ * <p>
+ *
+ * To let many threads use the cache at once, it is split into stripes by the hash of the pair. Each stripe is a
+ * least-recently-used map with its own lock and an equal share of the capacity. Results are computed outside the lock;
+ * two threads missing on the same pair at the same time may both compute it (the values are the same). The numbers of
+ * hits, misses, and evictions are counted.
+ * <p>
+ *
+ * Typical use (see also <code>BatchScorer</code>):
+ *
+ * <pre>
+ *     MSDCache cache = new MSDCache(10000);
+ *     double errorRate = cache.get(presented, transcribed, false).getErrorRateNew();
+ * </pre>
+ */
+public class MSDCache
+{
+	private static final int STRIPES = 16;
+	private static final int STRIPE_SHIFT = 28; // 32 - log2(STRIPES)
+
+	private final Stripe[] stripes = new Stripe[STRIPES];
+	private final AtomicLong hits = new AtomicLong();
+	private final AtomicLong misses = new AtomicLong();
+	private final AtomicLong evictions = new AtomicLong();
+
+	/**
+	 * Create a cache holding up to (about) the given number of results.
+	 */
+	public MSDCache(int capacity)
+	{
+		if (capacity < 1)
+			throw new IllegalArgumentException("capacity must be positive: " + capacity);
+		int perStripe = Math.max(1, (capacity + STRIPES - 1) / STRIPES);
+		for (int k = 0; k < STRIPES; ++k)
+			stripes[k] = new Stripe(perStripe);
+	}
+
+	private final class Stripe extends LinkedHashMap<Key, MSDResult>
+	{
+		private static final long serialVersionUID = 1L;
+		private final int capacity;
+
+		Stripe(int capacityArg)
+		{
+			super(16, 0.75f, true); // access order, for LRU
+			capacity = capacityArg;
+		}
+
+		@Override
+		protected boolean removeEldestEntry(Map.Entry<Key, MSDResult> eldest)
+		{
+			if (size() <= capacity)
+				return false;
+			evictions.incrementAndGet();
+			return true;
+		}
+	}
+
+	private static final class Key
+	{
+		final String presented, transcribed;
+		final boolean transpositions;
+		final int hash;
+
+		Key(String presentedArg, String transcribedArg, boolean transpositionsArg)
+		{
+			presented = presentedArg;
+			transcribed = transcribedArg;
+			transpositions = transpositionsArg;
+			int h = presented.hashCode() * 31 + transcribed.hashCode();
+			hash = transpositions ? ~h : h;
+		}
+
+		@Override
+		public int hashCode()
+		{
+			return hash;
+		}
+
+		@Override
+		public boolean equals(Object o)
+		{
+			if (!(o instanceof Key))
+				return false;
+			Key k = (Key)o;
+			return hash == k.hash && transpositions == k.transpositions && presented.equals(k.presented)
+					&& transcribed.equals(k.transcribed);
+		}
+	}
+
+	/**
+	 * Return the results for a pair, computing them if they are not in the cache.
+	 *
+	 * @param transpositions
+	 *            if true, the transposition of two neighbouring characters is treated as a single edit (as in
+	 *            <code>MSD2</code>)
+	 */
+	public MSDResult get(String presented, String transcribed, boolean transpositions)
+	{
+		Key key = new Key(presented, transcribed, transpositions);
+		/*
+		 * The stripe is chosen from the high bits of the re-mixed hash. HashMap indexes its buckets with the low bits,
+		 * so choosing stripes by those would leave most of each stripe's buckets empty.
+		 */
+		Stripe stripe = stripes[(key.hash * 0x9E3779B9) >>> STRIPE_SHIFT];
+
+		MSDResult result;
+		synchronized (stripe)
+		{
+			result = stripe.get(key);
+		}
+		if (result != null)
+		{
+			hits.incrementAndGet();
+			return result;
+		}
+
+		misses.incrementAndGet();
+		result = BatchScorer.score(presented, transcribed, transpositions, MSDWorkspace.get());
+		synchronized (stripe)
+		{
+			stripe.put(key, result);
+		}
+		return result;
+	}
+
+	/**
+	 * Return the number of results in the cache.
+	 */
+	public int size()
+	{
+		int n = 0;
+		for (Stripe stripe : stripes)
+			synchronized (stripe)
+			{
+				n += stripe.size();
+			}
+		return n;
+	}
+
+	/**
+	 * Remove all the results (the counters are not reset).
+	 */
+	public void clear()
+	{
+		for (Stripe stripe : stripes)
+			synchronized (stripe)
+			{
+				stripe.clear();
+			}
+	}
+
+	/**
+	 * Return the number of requests answered from the cache.
+	 */
+	public long getHitCount()
+	{
+		return hits.get();
+	}
+
+	/**
+	 * Return the number of requests that had to be computed.
+	 */
+	public long getMissCount()
+	{
+		return misses.get();
+	}
+
+	/**
+	 * Return the number of results removed to make room for others.
+	 */
+	public long getEvictionCount()
+	{
+		return evictions.get();
+	}
+
+	/**
+	 * Return the fraction of requests answered from the cache.
+	 */
+	public double getHitRate()
+	{
+		long h = hits.get();
+		long total = h + misses.get();
+		return total == 0 ? 0.0 : (double)h / total;
+	}
+
+	@Override
+	public String toString()
+	{
+		return String.format("MSDCache: %d results, %d hits, %d misses, %d evictions", size(), getHitCount(),
+				getMissCount(), getEvictionCount());
+	}
+}
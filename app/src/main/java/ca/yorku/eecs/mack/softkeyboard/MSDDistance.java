@@ -0,0 +1,517 @@
+package ca.yorku.eecs.mack.softkeyboard;
+
+import java.util.Arrays;
+
+/**
+ * MSDDistance -- a distance-only implementation of the minimum string distance (MSD) statistic.
+ * <p>
+ *
+ * The <code>MSD</code> and <code>MSD2</code> classes build the full (n+1) x (m+1) 'D' matrix because they also
+ * produce the optimal alignments. When only the distance is required (e.g., when re-scoring large sets of
+ * presented/transcribed phrase pairs) this is wasteful. This class computes the distance without building the matrix,
+ * as follows:
+ * <p>
+ *
+ * <ul>
+ * <li>Cheap pre-filters are applied first: identical strings, trimming of the common prefix and suffix, and the bounds
+ * imposed by the difference in length of the two strings. Many pairs are resolved here without any dynamic
+ * programming.
+ * <li>Otherwise, the bit-vector algorithm of Myers (1999), in the formulation of Hyyr&ouml; (2003), is used. One
+ * column of the 'D' matrix is encoded in the bits of a <code>long</code>, so phrases up to 64 characters are processed
+ * in a single word, one text character at a time. Longer strings use the blocked (multi-word) version of the algorithm.
+ * <li>The Damerau variant, where the transposition of two neighbouring characters counts as a single edit (as in
+ * <code>MSD2.TwoStringCollection.getTransposedDistance</code>) is supported in both the single-word and the blocked
+ * paths.
+ * </ul>
+ * <p>
+ *
+ * The value returned is identical to <code>MSD.getMSD()</code> (or <code>MSD2.getMSD()</code> when transpositions are
+ * allowed).
+ * <p>
+ *
+ * Related references:
+ * <p>
+ *
+ * <ul>
+ * <li>Myers, G. (1999). A fast bit-vector algorithm for approximate string matching based on dynamic programming.
+ * <i>Journal of the ACM</i>, 46(3), 395-415.
+ * <li>Hyyr&ouml;, H. (2003). A bit-vector algorithm for computing Levenshtein and Damerau edit distances. <i>Nordic
+ * Journal of Computing</i>, 10(1), 29-39.
+ * </ul>
+ */
+public final class MSDDistance
+{
+	private static final int WORD_SIZE = 64;
+	private static final int ASCII = 128;
+
+	private MSDDistance()
+	{
+	}
+
+	/**
+	 * Return the minimum string distance between two strings. The primitives are insert, delete, and substitute.
+	 *
+	 * @param presented
+	 *            the presented text string
+	 * @param transcribed
+	 *            the transcribed text string
+	 * @return the minimum string distance
+	 */
+	public static int distance(String presented, String transcribed)
+	{
+		return distance(presented, transcribed, false);
+	}
+
+	/**
+	 * Return the minimum string distance between two strings.
+	 *
+	 * @param presented
+	 *            the presented text string
+	 * @param transcribed
+	 *            the transcribed text string
+	 * @param transpositions
+	 *            if true, the transposition of two neighbouring characters is treated as a single edit
+	 * @return the minimum string distance
+	 */
+	public static int distance(String presented, String transcribed, boolean transpositions)
+	{
+		if (presented.equals(transcribed))
+			return 0;
+
+		int n = presented.length();
+		int m = transcribed.length();
+
+		// trim the common prefix and the common suffix (they don't contribute to the distance)
+		int start = 0;
+		int limit = Math.min(n, m);
+		while (start < limit && presented.charAt(start) == transcribed.charAt(start))
+			++start;
+		while (n > start && m > start && presented.charAt(n - 1) == transcribed.charAt(m - 1))
+		{
+			--n;
+			--m;
+		}
+		n -= start;
+		m -= start;
+
+		/*
+		 * The distance is at least the difference in length and at most that plus the length of the shorter string.
+		 * When the shorter string is empty or a single character, the bounds settle the distance.
+		 */
+		if (n == 0 || m == 0)
+			return Math.max(n, m);
+		if (n == 1)
+			return m - (indexOf(transcribed, start, m, presented.charAt(start)) ? 1 : 0);
+		if (m == 1)
+			return n - (indexOf(presented, start, n, transcribed.charAt(start)) ? 1 : 0);
+
+		// the shorter string is the "pattern" encoded in the bit vectors
+		int[] pattern;
+		int[] text;
+		if (n <= m)
+		{
+			pattern = toSymbols(presented, start, n);
+			text = toSymbols(transcribed, start, m);
+		} else
+		{
+			pattern = toSymbols(transcribed, start, m);
+			text = toSymbols(presented, start, n);
+		}
+
+		return pattern.length <= WORD_SIZE ? singleWord(pattern, text, transpositions) : blocked(pattern, text,
+				transpositions);
+	}
+
+	/**
+	 * Return the minimum string distance between two sequences of tokens (e.g., the ids of words interned by a
+	 * {@link TokenDictionary}, for the word-level MSD). Tokens must not be negative. The bit-vector algorithm works the
+	 * same over any alphabet, so this costs about the same as the character-level distance for sequences of the same
+	 * length.
+	 *
+	 * @param presented
+	 *            the presented tokens
+	 * @param transcribed
+	 *            the transcribed tokens
+	 * @param transpositions
+	 *            if true, the transposition of two neighbouring tokens is treated as a single edit
+	 * @return the minimum string distance
+	 */
+	public static int distance(int[] presented, int[] transcribed, boolean transpositions)
+	{
+		int n = presented.length;
+		int m = transcribed.length;
+
+		int start = 0;
+		int limit = Math.min(n, m);
+		while (start < limit && presented[start] == transcribed[start])
+			++start;
+		while (n > start && m > start && presented[n - 1] == transcribed[m - 1])
+		{
+			--n;
+			--m;
+		}
+		n -= start;
+		m -= start;
+
+		if (n == 0 || m == 0)
+			return Math.max(n, m);
+		if (n == 1)
+			return m - (indexOf(transcribed, start, m, presented[start]) ? 1 : 0);
+		if (m == 1)
+			return n - (indexOf(presented, start, n, transcribed[start]) ? 1 : 0);
+
+		int[] pattern;
+		int[] text;
+		if (n <= m)
+		{
+			pattern = Arrays.copyOfRange(presented, start, start + n);
+			text = Arrays.copyOfRange(transcribed, start, start + m);
+		} else
+		{
+			pattern = Arrays.copyOfRange(transcribed, start, start + m);
+			text = Arrays.copyOfRange(presented, start, start + n);
+		}
+
+		return pattern.length <= WORD_SIZE ? singleWord(pattern, text, transpositions) : blocked(pattern, text,
+				transpositions);
+	}
+
+	/**
+	 * Return true if the minimum string distance between two strings is at most <code>k</code>. See
+	 * {@link #boundedDistance}.
+	 */
+	public static boolean withinDistance(String presented, String transcribed, int k, boolean transpositions)
+	{
+		return boundedDistance(presented, transcribed, k, transpositions) <= k;
+	}
+
+	/**
+	 * Return the minimum string distance between two strings if it is at most <code>k</code>, or <code>k + 1</code>
+	 * otherwise.
+	 * <p>
+	 *
+	 * This is Ukkonen's banded dynamic programming. A path through the D matrix that leaves the diagonals
+	 * <code>j - i</code> in [-k, k] costs more than k, so only the 2k+1 cells of each row inside that band are
+	 * computed. The rows are the shorter string, the band is held in three arrays of 2k+3 cells (the third one only for
+	 * transpositions), and the computation stops as soon as every cell of a row exceeds k. The cost is O(k min(n,m))
+	 * time and O(k) memory, which makes screening large sets of phrase pairs (e.g., for participants who typed the
+	 * wrong phrase) much cheaper than computing the distance.
+	 *
+	 * @param presented
+	 *            the presented text string
+	 * @param transcribed
+	 *            the transcribed text string
+	 * @param k
+	 *            the threshold (not negative)
+	 * @param transpositions
+	 *            if true, the transposition of two neighbouring characters is treated as a single edit
+	 * @return the minimum string distance, or <code>k + 1</code> if it exceeds k
+	 */
+	public static int boundedDistance(String presented, String transcribed, int k, boolean transpositions)
+	{
+		if (k < 0)
+			throw new IllegalArgumentException("negative threshold: " + k);
+
+		// the distance is symmetric, so the shorter string gives the rows
+		String a = presented.length() <= transcribed.length() ? presented : transcribed;
+		String b = a == presented ? transcribed : presented;
+
+		int n = a.length();
+		int m = b.length();
+		int start = 0;
+		while (start < n && a.charAt(start) == b.charAt(start))
+			++start;
+		while (n > start && a.charAt(n - 1) == b.charAt(m - 1))
+		{
+			--n;
+			--m;
+		}
+		n -= start;
+		m -= start;
+
+		int over = k + 1;
+		if (m - n > k)
+			return over;
+		if (n == 0)
+			return m;
+
+		/*
+		 * Cell (i, j) of the D matrix is held at index j - i + k + 1 of a row; indices 0 and 2k+2 are sentinels
+		 * (always over the threshold) so the neighbours of the band's edge cells need no tests.
+		 */
+		int width = 2 * k + 3;
+		int[] previous2 = transpositions ? new int[width] : null;
+		int[] previous = new int[width];
+		int[] current = new int[width];
+
+		for (int q = 0; q < width; ++q)
+		{
+			int j = q - k - 1;
+			previous[q] = j >= 0 && j <= Math.min(k, m) ? j : over;
+		}
+
+		for (int i = 1; i <= n; ++i)
+		{
+			char c = a.charAt(start + i - 1);
+			current[0] = over;
+			current[width - 1] = over;
+			int rowMin = over;
+			for (int q = 1; q < width - 1; ++q)
+			{
+				int j = i + q - k - 1;
+				int value;
+				if (j < 0 || j > m)
+					value = over;
+				else if (j == 0)
+					value = i;
+				else
+				{
+					char e = b.charAt(start + j - 1);
+					value = previous[q] + (c == e ? 0 : 1);
+					value = Math.min(value, previous[q + 1] + 1);
+					value = Math.min(value, current[q - 1] + 1);
+					if (transpositions && i >= 2 && j >= 2 && c == b.charAt(start + j - 2)
+							&& a.charAt(start + i - 2) == e)
+						value = Math.min(value, previous2[q] + 1);
+					if (value > over)
+						value = over;
+				}
+				current[q] = value;
+				if (value < rowMin)
+					rowMin = value;
+			}
+			if (rowMin > k)
+				return over;
+
+			// rotate the rows, reusing the oldest
+			int[] oldest = previous;
+			if (transpositions)
+			{
+				oldest = previous2;
+				previous2 = previous;
+			}
+			previous = current;
+			current = oldest;
+		}
+		return previous[m - n + k + 1];
+	}
+
+	private static boolean indexOf(int[] s, int start, int length, int token)
+	{
+		for (int i = start; i < start + length; ++i)
+			if (s[i] == token)
+				return true;
+		return false;
+	}
+
+	private static boolean indexOf(String s, int start, int length, char c)
+	{
+		for (int i = start; i < start + length; ++i)
+			if (s.charAt(i) == c)
+				return true;
+		return false;
+	}
+
+	private static int[] toSymbols(String s, int start, int length)
+	{
+		int[] symbols = new int[length];
+		for (int i = 0; i < length; ++i)
+			symbols[i] = s.charAt(start + i);
+		return symbols;
+	}
+
+	/*
+	 * The pattern-match vectors (Peq in Myers' paper). For each symbol, one bit per pattern position, set where the
+	 * pattern holds that symbol. Symbols (which are never negative) below 128 are looked up directly; other symbols are
+	 * kept in a small open-addressing hash table.
+	 */
+	private static final class PatternMasks
+	{
+		final int blocks;
+		final long[] ascii;
+		final int[] keys;
+		final long[] masks;
+		final int mask;
+		final long[] none;
+
+		PatternMasks(int[] pattern)
+		{
+			blocks = (pattern.length + WORD_SIZE - 1) / WORD_SIZE;
+			ascii = new long[ASCII * blocks];
+			none = new long[blocks];
+
+			int other = 0;
+			for (int symbol : pattern)
+				if (symbol >= ASCII)
+					++other;
+
+			int capacity = 1;
+			while (capacity < 2 * other)
+				capacity <<= 1;
+			keys = new int[other == 0 ? 0 : capacity];
+			masks = new long[keys.length * blocks];
+			mask = capacity - 1;
+			for (int i = 0; i < keys.length; ++i)
+				keys[i] = -1;
+
+			for (int i = 0; i < pattern.length; ++i)
+			{
+				int symbol = pattern[i];
+				long bit = 1L << (i % WORD_SIZE);
+				if (symbol < ASCII)
+					ascii[symbol * blocks + i / WORD_SIZE] |= bit;
+				else
+					masks[slot(symbol, true) * blocks + i / WORD_SIZE] |= bit;
+			}
+		}
+
+		// return the hash slot for a non-ASCII symbol (-1 if absent and not inserting)
+		private int slot(int symbol, boolean insert)
+		{
+			if (keys.length == 0)
+				return -1;
+			int h = (symbol * 0x9E3779B1) >>> 16 & mask;
+			while (keys[h] != -1 && keys[h] != symbol)
+				h = (h + 1) & mask;
+			if (keys[h] == -1)
+			{
+				if (!insert)
+					return -1;
+				keys[h] = symbol;
+			}
+			return h;
+		}
+
+		// return the array holding the masks for a symbol; the block offset is written to offset[0]
+		long[] lookup(int symbol, int[] offset)
+		{
+			if (symbol < ASCII)
+			{
+				offset[0] = symbol * blocks;
+				return ascii;
+			}
+			int h = slot(symbol, false);
+			if (h < 0)
+			{
+				offset[0] = 0;
+				return none;
+			}
+			offset[0] = h * blocks;
+			return masks;
+		}
+	}
+
+	/*
+	 * Myers/Hyyro bit-vector distance for a pattern of at most 64 symbols. VP and VN hold the vertical +1 and -1
+	 * deltas of the current column of the D matrix; the score tracks D[m][j].
+	 */
+	private static int singleWord(int[] pattern, int[] text, boolean transpositions)
+	{
+		PatternMasks peq = new PatternMasks(pattern);
+		int[] offset = new int[1];
+
+		int m = pattern.length;
+		long last = 1L << (m - 1);
+		long vp = -1L;
+		long vn = 0L;
+		long d0 = 0L;
+		long pmPrevious = 0L;
+		int score = m;
+
+		for (int symbol : text)
+		{
+			long[] masks = peq.lookup(symbol, offset);
+			long pm = masks[offset[0]];
+
+			long tr = transpositions ? (((~d0) & pm) << 1) & pmPrevious : 0L;
+			d0 = (((pm & vp) + vp) ^ vp) | pm | vn | tr;
+			long hp = vn | ~(d0 | vp);
+			long hn = vp & d0;
+
+			if ((hp & last) != 0)
+				++score;
+			else if ((hn & last) != 0)
+				--score;
+
+			hp = (hp << 1) | 1L;
+			hn = hn << 1;
+			vp = hn | ~(d0 | hp);
+			vn = hp & d0;
+			pmPrevious = pm;
+		}
+		return score;
+	}
+
+	/*
+	 * The blocked version of the above for patterns longer than 64 symbols. Each column is processed one 64-bit block
+	 * at a time, top to bottom, passing the horizontal delta (+1, 0, -1) out of the bottom of one block into the top of
+	 * the next. For transpositions, the bit shifted out of the top of a block's transposition term is carried into the
+	 * next block as well.
+	 */
+	private static int blocked(int[] pattern, int[] text, boolean transpositions)
+	{
+		PatternMasks peq = new PatternMasks(pattern);
+		int[] offset = new int[1];
+		int blocks = peq.blocks;
+
+		int m = pattern.length;
+		int lastBlock = blocks - 1;
+		long last = 1L << ((m - 1) % WORD_SIZE);
+
+		long[] vp = new long[blocks];
+		long[] vn = new long[blocks];
+		long[] d0 = new long[blocks];
+		long[] pmPrevious = new long[blocks];
+		for (int b = 0; b < blocks; ++b)
+			vp[b] = -1L;
+		int score = m;
+
+		for (int symbol : text)
+		{
+			long[] masks = peq.lookup(symbol, offset);
+			int base = offset[0];
+
+			int hin = 1; // the top row of the D matrix always increases by one
+			long trCarry = 0L;
+
+			for (int b = 0; b < blocks; ++b)
+			{
+				long pm = masks[base + b];
+				long vpb = vp[b];
+				long vnb = vn[b];
+				long hinNeg = hin < 0 ? 1L : 0L;
+				long hinPos = hin > 0 ? 1L : 0L;
+
+				long tr = 0L;
+				if (transpositions)
+				{
+					long t = (~d0[b]) & pm;
+					tr = ((t << 1) | trCarry) & pmPrevious[b];
+					trCarry = t >>> (WORD_SIZE - 1);
+					pmPrevious[b] = pm;
+				}
+
+				long x = pm | hinNeg;
+				long d = (((x & vpb) + vpb) ^ vpb) | x | vnb | tr;
+				long hp = vnb | ~(d | vpb);
+				long hn = vpb & d;
+
+				if (b == lastBlock)
+				{
+					if ((hp & last) != 0)
+						++score;
+					else if ((hn & last) != 0)
+						--score;
+				} else
+					hin = (hp < 0 ? 1 : 0) - (hn < 0 ? 1 : 0); // sign bit = bit 63
+
+				hp = (hp << 1) | hinPos;
+				hn = (hn << 1) | hinNeg;
+				vp[b] = hn | ~(d | hp);
+				vn[b] = hp & d;
+				d0[b] = d;
+			}
+		}
+		return score;
+	}
+}
@@ -0,0 +1,91 @@
+package ca.yorku.eecs.mack.softkeyboard;
+
+/**
+ * MSDResult - the MSD statistics of one presented/transcribed pair.
+ * <p>
+ *
+ * Unlike <code>MSD</code> and <code>MSD2</code> (whose alignments refer back to the matrix of the object that made
+ * them), a result holds only values. It is immutable, so it can be passed between threads freely. Results are produced
+ * by <code>BatchScorer</code>.
+ */
+public final class MSDResult
+{
+	private final String presented, transcribed;
+	private final int msd;
+	private final double alignmentCount;
+	private final double meanAlignmentLength;
+
+	MSDResult(String presentedArg, String transcribedArg, int msdArg, double alignmentCountArg,
+			double meanAlignmentLengthArg)
+	{
+		presented = presentedArg;
+		transcribed = transcribedArg;
+		msd = msdArg;
+		alignmentCount = alignmentCountArg;
+		meanAlignmentLength = meanAlignmentLengthArg;
+	}
+
+	/**
+	 * Return the presented text.
+	 */
+	public String getPresented()
+	{
+		return presented;
+	}
+
+	/**
+	 * Return the transcribed text.
+	 */
+	public String getTranscribed()
+	{
+		return transcribed;
+	}
+
+	/**
+	 * Return the minimum string distance.
+	 */
+	public int getMSD()
+	{
+		return msd;
+	}
+
+	/**
+	 * Return the number of optimal alignments (<code>Infinity</code> if it exceeds the range of a <code>double</code>).
+	 */
+	public double getAlignmentCount()
+	{
+		return alignmentCount;
+	}
+
+	/**
+	 * Return the mean length of the optimal alignments.
+	 */
+	public double getMeanAlignmentLength()
+	{
+		return meanAlignmentLength;
+	}
+
+	/**
+	 * Return the error rate (%), computed using the larger of the lengths of the presented and transcribed text (as in
+	 * <code>MSD.getErrorRate()</code>).
+	 */
+	public double getErrorRate()
+	{
+		return (double)msd / Math.max(presented.length(), transcribed.length()) * 100.0;
+	}
+
+	/**
+	 * Return the error rate (%), computed using the mean length of the optimal alignments (as in
+	 * <code>MSD.getErrorRateNew()</code>).
+	 */
+	public double getErrorRateNew()
+	{
+		return msd / meanAlignmentLength * 100.0;
+	}
+
+	@Override
+	public String toString()
+	{
+		return "\"" + presented + "\" \"" + transcribed + "\" MSD=" + msd;
+	}
+}
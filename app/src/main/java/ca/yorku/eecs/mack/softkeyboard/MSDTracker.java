@@ -0,0 +1,284 @@
+package ca.yorku.eecs.mack.softkeyboard;
+
+/**
+ * MSDTracker - incremental computation of the MSD statistics, one keystroke at a time.
+ * <p>
+ *
+ * The presented text is fixed for the duration of a phrase, so each transcribed character adds one column to the MSD
+ * matrix. This class keeps a stack of columns: a character appends a column, a backspace pops one. Along with the
+ * distances, each column carries the number of optimal alignment paths reaching each cell and the sum of their lengths
+ * (as in <code>AlignmentDag</code>). The cost per keystroke is O(n), where n is the length of the presented text, and
+ * the MSD, both error rates, and KSPC are available at any time in O(1).
+ * <p>
+ *
+ * The values reported are the same as <code>new MSD(presented, transcribed)</code>, where <code>transcribed</code>
+ * is the text entered so far with leading and trailing whitespace removed (as with <code>String.trim()</code>). Case
+ * is significant, so callers should fold case consistently for the presented text and the keystrokes.
+ * <p>
+ *
+ * Typical use (see <code>SoftKeyboardActivity</code>):
+ *
+ * <pre>
+ *     tracker.reset(presentedPhrase);
+ *     ...
+ *     tracker.append(c);      // for each character entered
+ *     tracker.backspace();    // for each BACKSPACE
+ *     ...
+ *     double errorRate = tracker.getErrorRateNew();
+ * </pre>
+ */
+public class MSDTracker
+{
+	private static final int INITIAL_CAPACITY = 64;
+
+	private String presented;
+	private int rows; // presented length + 1 (the height of a column)
+
+	private int[] d; // the columns of the MSD matrix, one after the other
+	private double[] counts; // number of optimal paths reaching each cell
+	private double[] lengths; // sum of the lengths of those paths
+
+	private char[] typed; // characters entered (including leading whitespace)
+	private int[] solid; // solid[k] = the last column, among the first k, that is not whitespace
+	private int typedCount; // characters on the stack
+	private int leading; // leading whitespace characters (these add no column)
+	private int columns; // columns beyond column 0
+	private int keystrokes;
+
+	public MSDTracker()
+	{
+		typed = new char[INITIAL_CAPACITY];
+		solid = new int[INITIAL_CAPACITY + 1];
+		reset("");
+	}
+
+	/**
+	 * Start a new phrase.
+	 *
+	 * @param presentedArg
+	 *            the presented text
+	 */
+	public void reset(String presentedArg)
+	{
+		presented = presentedArg;
+		rows = presented.length() + 1;
+		if (d == null || d.length < rows * (typed.length + 1))
+		{
+			d = new int[rows * (typed.length + 1)];
+			counts = new double[d.length];
+			lengths = new double[d.length];
+		}
+
+		// column 0: deletions only
+		for (int i = 0; i < rows; ++i)
+		{
+			d[i] = i;
+			counts[i] = 1.0;
+			lengths[i] = i;
+		}
+		typedCount = 0;
+		leading = 0;
+		columns = 0;
+		keystrokes = 0;
+	}
+
+	/**
+	 * Process a character keystroke.
+	 */
+	public void append(char c)
+	{
+		++keystrokes;
+		if (typedCount == typed.length)
+			grow();
+		typed[typedCount++] = c;
+
+		if (columns == 0 && c <= ' ')
+		{
+			++leading;
+			return;
+		}
+
+		++columns;
+		solid[columns] = c <= ' ' ? solid[columns - 1] : columns;
+		computeColumn(columns, c);
+	}
+
+	/**
+	 * Process a BACKSPACE keystroke. A backspace with no text entered is counted as a keystroke, but otherwise has no
+	 * effect.
+	 */
+	public void backspace()
+	{
+		++keystrokes;
+		if (typedCount == 0)
+			return;
+
+		--typedCount;
+		if (columns > 0)
+			--columns;
+		else
+			--leading;
+	}
+
+	/*
+	 * Fill column j of the MSD matrix (transcribed character c) from column j - 1.
+	 */
+	private void computeColumn(int j, char c)
+	{
+		int previous = (j - 1) * rows;
+		int current = j * rows;
+
+		d[current] = j;
+		counts[current] = 1.0;
+		lengths[current] = j;
+
+		for (int i = 1; i < rows; ++i)
+		{
+			int diagonal = d[previous + i - 1];
+			int left = d[previous + i];
+			int up = d[current + i - 1];
+			boolean match = presented.charAt(i - 1) == c;
+
+			int m = Math.min(Math.min(left + 1, up + 1), diagonal + (match ? 0 : 1));
+			d[current + i] = m;
+
+			double n = 0.0;
+			double length = 0.0;
+			if (m == diagonal + (match ? 0 : 1))
+			{
+				n += counts[previous + i - 1];
+				length += lengths[previous + i - 1] + counts[previous + i - 1];
+			}
+			if (m == left + 1)
+			{
+				n += counts[previous + i];
+				length += lengths[previous + i] + counts[previous + i];
+			}
+			if (m == up + 1)
+			{
+				n += counts[current + i - 1];
+				length += lengths[current + i - 1] + counts[current + i - 1];
+			}
+			counts[current + i] = n;
+			lengths[current + i] = length;
+		}
+	}
+
+	private void grow()
+	{
+		int capacity = typed.length * 2;
+
+		char[] newTyped = new char[capacity];
+		System.arraycopy(typed, 0, newTyped, 0, typed.length);
+		typed = newTyped;
+
+		int[] newSolid = new int[capacity + 1];
+		System.arraycopy(solid, 0, newSolid, 0, solid.length);
+		solid = newSolid;
+
+		int size = rows * (capacity + 1);
+		if (d.length < size)
+		{
+			int[] newD = new int[size];
+			double[] newCounts = new double[size];
+			double[] newLengths = new double[size];
+			System.arraycopy(d, 0, newD, 0, d.length);
+			System.arraycopy(counts, 0, newCounts, 0, counts.length);
+			System.arraycopy(lengths, 0, newLengths, 0, lengths.length);
+			d = newD;
+			counts = newCounts;
+			lengths = newLengths;
+		}
+	}
+
+	// the cell holding the result for the transcribed text with trailing whitespace removed
+	private int resultCell()
+	{
+		return solid[columns] * rows + rows - 1;
+	}
+
+	/**
+	 * Return the presented text.
+	 */
+	public String getPresented()
+	{
+		return presented;
+	}
+
+	/**
+	 * Return the transcribed text (without leading or trailing whitespace).
+	 */
+	public String getTranscribed()
+	{
+		return new String(typed, leading, solid[columns]);
+	}
+
+	/**
+	 * Return the length of the transcribed text (without leading or trailing whitespace).
+	 */
+	public int getTranscribedLength()
+	{
+		return solid[columns];
+	}
+
+	/**
+	 * Return the number of keystrokes (characters and backspaces) since the last reset.
+	 */
+	public int getKeystrokeCount()
+	{
+		return keystrokes;
+	}
+
+	/**
+	 * Return the minimum string distance between the presented text and the transcribed text.
+	 */
+	public int getMSD()
+	{
+		return d[resultCell()];
+	}
+
+	/**
+	 * Return the number of optimal alignments (<code>Infinity</code> if it exceeds the range of a <code>double</code>).
+	 */
+	public double getAlignmentCount()
+	{
+		return counts[resultCell()];
+	}
+
+	/**
+	 * Return the mean size of the optimal alignments.
+	 */
+	public double meanAlignmentSize()
+	{
+		int cell = resultCell();
+		double mean = lengths[cell] / counts[cell];
+		if (Double.isNaN(mean) && counts[cell] != 0.0)
+			return new MSD(presented, getTranscribed()).meanAlignmentSize(); // the counts overflowed
+		return mean;
+	}
+
+	/**
+	 * Return the error rate (%), computed using the larger of the lengths of the presented and transcribed text.
+	 */
+	public double getErrorRate()
+	{
+		return (double)getMSD() / Math.max(presented.length(), getTranscribedLength()) * 100.0;
+	}
+
+	/**
+	 * Return the error rate (%), computed using the mean size of the alignment strings. This is the same as
+	 * <code>MSD.getErrorRateNew()</code>.
+	 */
+	public double getErrorRateNew()
+	{
+		return getMSD() / meanAlignmentSize() * 100.0;
+	}
+
+	/**
+	 * Return the keystrokes per character: the keystroke count divided by the length of the transcribed text.
+	 */
+	public double getKSPC()
+	{
+		return (double)keystrokes / getTranscribedLength();
+	}
+}
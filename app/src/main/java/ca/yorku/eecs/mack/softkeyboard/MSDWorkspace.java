@@ -0,0 +1,260 @@
+package ca.yorku.eecs.mack.softkeyboard;
+
+/**
+ * MSDWorkspace - reusable storage for computing the MSD statistics of many pairs of texts.
+ * <p>
+ *
+ * <code>new MSD(...)</code> and <code>new MSD2(...)</code> allocate a jagged <code>int[][]</code> matrix (one array
+ * per row) for every pair, plus the objects that hold the alignments. When re-scoring a large data set, the
+ * allocation and the indirection through the row arrays dominate the cost. A workspace holds the D matrix in a single
+ * flat <code>int[]</code> (cell (i, j) at <code>i * getColumns() + j</code>), along with the path counts used for the
+ * mean alignment length. The arrays grow geometrically as needed and are reused for the next pair, so once a workspace
+ * has seen the longest pair, scoring allocates nothing.
+ * <p>
+ *
+ * A workspace must not be used by two threads at once. Parallel callers can use {@link #get()}, which returns a
+ * workspace for the calling thread. Typical use:
+ *
+ * <pre>
+ *     MSDWorkspace w = MSDWorkspace.get();
+ *     for (...)
+ *     {
+ *         double errorRate = MSD.getErrorRateNew(presented, transcribed, w);
+ *         ...
+ *     }
+ * </pre>
+ *
+ * See also <code>MSD2.getMSD(MSDCollection, MSDWorkspace)</code> and
+ * <code>MSD2.getAverageAlignmentLength(MSDCollection, MSDWorkspace)</code>.
+ */
+public final class MSDWorkspace
+{
+	private static final int INITIAL_CAPACITY = 1024;
+
+	private static final ThreadLocal<MSDWorkspace> PER_THREAD = new ThreadLocal<MSDWorkspace>()
+	{
+		@Override
+		protected MSDWorkspace initialValue()
+		{
+			return new MSDWorkspace();
+		}
+	};
+
+	int[] d; // the D matrix, row by row
+	private double[] counts; // number of optimal paths reaching each cell (allocated on first use)
+	private double[] lengths; // sum of the lengths of those paths
+	int rows, cols;
+
+	private boolean counted; // the path counts are for the last pair computed
+	private MSD2.MSDCollection collection; // the data of the last pair computed
+	private final MSD2.TwoStringCollection strings = new MSD2.TwoStringCollection("", "");
+
+	public MSDWorkspace()
+	{
+		d = new int[INITIAL_CAPACITY];
+	}
+
+	/**
+	 * Return the workspace of the calling thread.
+	 */
+	public static MSDWorkspace get()
+	{
+		return PER_THREAD.get();
+	}
+
+	/*
+	 * Prepare for a pair with the given sizes, growing the matrix if necessary.
+	 */
+	private void reset(int presentedSize, int transcribedSize)
+	{
+		rows = presentedSize + 1;
+		cols = transcribedSize + 1;
+		int size = rows * cols;
+		if (d.length < size)
+			d = new int[Math.max(size, 2 * d.length)];
+	}
+
+	/**
+	 * Compute the D matrix for two strings (the primitives are insert, delete, and substitute, as in <code>MSD</code>).
+	 *
+	 * @return the minimum string distance
+	 */
+	public int compute(String presented, String transcribed)
+	{
+		strings.P = presented;
+		strings.T = transcribed;
+		strings.AllowTransposes = false;
+		collection = strings;
+		counted = false;
+
+		reset(presented.length(), transcribed.length());
+		for (int j = 0; j < cols; ++j)
+			d[j] = j;
+		for (int i = 1; i < rows; ++i)
+		{
+			int row = i * cols;
+			char c = presented.charAt(i - 1);
+			d[row] = i;
+			for (int j = 1; j < cols; ++j)
+			{
+				int m = Math.min(d[row - cols + j] + 1, d[row + j - 1] + 1);
+				d[row + j] = Math.min(m, d[row - cols + j - 1] + (c == transcribed.charAt(j - 1) ? 0 : 1));
+			}
+		}
+		return getDistance();
+	}
+
+	/**
+	 * Compute the D matrix for two strings, optionally treating the transposition of two neighbouring characters as a
+	 * single edit (as in <code>MSD2</code>).
+	 *
+	 * @return the minimum string distance
+	 */
+	public int compute(String presented, String transcribed, boolean transpositions)
+	{
+		if (!transpositions)
+			return compute(presented, transcribed);
+
+		strings.P = presented;
+		strings.T = transcribed;
+		strings.AllowTransposes = true;
+		return compute(strings);
+	}
+
+	/**
+	 * Compute the D matrix for the data in an <code>MSD2.MSDCollection</code> (as in <code>MSD2</code>).
+	 *
+	 * @return the minimum string distance
+	 */
+	public int compute(MSD2.MSDCollection c)
+	{
+		collection = c;
+		counted = false;
+
+		reset(c.getPresentedSize(), c.getTranscribedSize());
+		for (int j = 0; j < cols; ++j)
+			d[j] = j;
+		for (int i = 1; i < rows; ++i)
+		{
+			int row = i * cols;
+			d[row] = i;
+			for (int j = 1; j < cols; ++j)
+			{
+				int m = Math.min(d[row - cols + j] + 1, d[row + j - 1] + 1);
+				m = Math.min(m, d[row - cols + j - 1] + c.getItemDistance(i - 1, j - 1));
+				if (i >= 2 && j >= 2)
+					m = Math.min(m, d[row - 2 * cols + j - 2] + c.getTransposedDistance(i - 1, j - 1));
+				d[row + j] = m;
+			}
+		}
+		return getDistance();
+	}
+
+	/**
+	 * Return the minimum string distance of the last pair computed.
+	 */
+	public int getDistance()
+	{
+		return d[rows * cols - 1];
+	}
+
+	/**
+	 * Return the mean length of the optimal alignments of the last pair computed (see
+	 * <code>AlignmentDag.getMeanAlignmentLength</code>).
+	 */
+	public double getMeanAlignmentLength()
+	{
+		countPaths();
+		int size = rows * cols;
+		double n = counts[size - 1];
+		double length = lengths[size - 1];
+		if (Double.isInfinite(n) || Double.isInfinite(length))
+			return getAlignmentDag().getMeanAlignmentLength(); // the counts overflowed
+		return length / n;
+	}
+
+	/**
+	 * Return the number of optimal alignments of the last pair computed (<code>Infinity</code> if it exceeds the range
+	 * of a <code>double</code>).
+	 */
+	public double getAlignmentCount()
+	{
+		countPaths();
+		return counts[rows * cols - 1];
+	}
+
+	// count the optimal paths into each cell, and the sum of their lengths (see AlignmentDag.countPaths)
+	private void countPaths()
+	{
+		if (counted)
+			return;
+		counted = true;
+
+		int size = rows * cols;
+		if (counts == null || counts.length < size)
+		{
+			counts = new double[Math.max(size, d.length)];
+			lengths = new double[counts.length];
+		}
+
+		counts[0] = 1.0;
+		lengths[0] = 0.0;
+		for (int i = 0; i < rows; ++i)
+			for (int j = 0; j < cols; ++j)
+			{
+				int cell = i * cols + j;
+				if (cell == 0)
+					continue;
+
+				int mask = AlignmentDag.moves(d, cols, i, j, collection);
+				double n = 0.0;
+				double length = 0.0;
+				for (int step = AlignmentDag.CORRECT; step <= AlignmentDag.TRANSPOSITION; step <<= 1)
+					if ((mask & step) != 0)
+					{
+						int from = AlignmentDag.predecessor(cell, step, cols);
+						n += counts[from];
+						length += lengths[from] + counts[from] * AlignmentDag.stepLength(step);
+					}
+				counts[cell] = n;
+				lengths[cell] = length;
+			}
+	}
+
+	/**
+	 * Build the optimal-path graph of the last pair computed. (The graph has its own storage, so it remains valid after
+	 * the workspace is reused.)
+	 */
+	public AlignmentDag getAlignmentDag()
+	{
+		MSD2.MSDCollection c = collection;
+		if (c == strings) // don't hand out the reusable collection
+			c = new MSD2.TwoStringCollection(strings.P, strings.T, strings.AllowTransposes);
+		return new AlignmentDag(this, c);
+	}
+
+	/**
+	 * Return the number of rows in the matrix of the last pair computed (the presented size + 1).
+	 */
+	public int getRows()
+	{
+		return rows;
+	}
+
+	/**
+	 * Return the number of columns (the row stride) in the matrix of the last pair computed (the transcribed size +
+	 * 1).
+	 */
+	public int getColumns()
+	{
+		return cols;
+	}
+
+	/**
+	 * Return cell (i, j) of the D matrix of the last pair computed.
+	 */
+	public int get(int i, int j)
+	{
+		return d[i * cols + j];
+	}
+}
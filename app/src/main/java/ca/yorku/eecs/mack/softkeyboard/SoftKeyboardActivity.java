@@ -315,6 +315,11 @@ import ca.yorku.eecs.mack.softkeyboard.KeyboardPanel.OnKeystrokeListener;
  * off the keyboard before finger-lift.
  * <p>
  *
+ * Each finger is tracked separately, so a key may be pressed before the previous key is released
+ * (rollover, as in fast two-thumb typing). The keystrokes are processed in the order the keys were
+ * pressed, each with its own finger-down and finger-lift times.
+ * <p>
+ *
  * If a mistake is made, the "Bksp" may be tapped to erase the last character entered.
  * <p>
  *
@@ -356,6 +361,13 @@ import ca.yorku.eecs.mack.softkeyboard.KeyboardPanel.OnKeystrokeListener;
  * </ul>
  * <p>
  *
+ * The sd1 timestamps are the times of the touch events (from <code>MotionEvent.getEventTime()</code>, on the
+ * monotonic uptime clock), not the times the events were handled. A third file, ending in "-latency.csv", is written
+ * at the end of the block. It summarizes the input latency of the keyboard (from the touch event, to the event
+ * handler, to the next frame drawn), so the latency of each layout and device can be reported. See
+ * <code>LatencyMonitor</code>.
+ * <p>
+ *
  * Actual output files use "SoftKeyboardExperiment" as the base filename. This is followed by the
  * participant code, the session code, the block code, the group code, the condition code, and the
  * layout name. An example might be
@@ -425,7 +437,8 @@ public class SoftKeyboardActivity extends Activity implements OnKeystrokeListene
     private final static String APP = "SoftKeyboard";
     private final static String DATA_DIRECTORY = "/SoftKeyboardData/";
     private final static String SD2_HEADER = "App,Participant,Session,Block,Group,Condition,Layout,Scale,"
-            + "Keystrokes,Characters,Time(s),Speed(wpm),ErrorRate(%),KSPC\n";
+            + "Keystrokes,Characters,Time(s),Speed(wpm),ErrorRate(%),WordErrorRate(%),TotalErrorRate(%),"
+            + "CorrectedErrorRate(%),UncorrectedErrorRate(%),WeightedErrorRate(%),KSPC\n";
 
     private int numberOfPhrases;
     private boolean lowercaseOnly, showPresentedTextDuringEntry;
@@ -440,11 +453,17 @@ public class SoftKeyboardActivity extends Activity implements OnKeystrokeListene
     private EditText transcribedText;
     private Random r = new Random();
     private ArrayList<Sample> samples;
+    private MSDTracker msdTracker; // MSD statistics, updated on each keystroke
+    private KeystrokeAnalyzer keystrokeAnalyzer; // input-stream error rates, updated on each keystroke
+    private KeyDistanceTable keyDistanceTable; // for the weighted (layout-aware) MSD
+    private TokenDictionary wordDictionary; // words of the phrases, interned for the word-level MSD
+    private int[] presentedWords;
     private long elapsedTimeForPhrase;
     private long timeStartOfPhrase;
     private String[] phrases;
     private BufferedWriter sd1, sd2;
-    private File f1, f2;
+    private File f1, f2, f3;
+    private KeyboardPanel keyboardPanel; // for the latency file (latency, redraw, and vibration counts)
     private String sd2Leader; // sd2Leader to identify conditions for data written to sd2 files.
 //todo: New variable
     ImageButton startbutton,pauseButton;
@@ -599,7 +618,9 @@ public class SoftKeyboardActivity extends Activity implements OnKeystrokeListene
         keyboard.setVibrator((Vibrator)getSystemService(Context.VIBRATOR_SERVICE));
         keyboard.setShowPopupKey(showPopupKey);
         keyboard.setOffsetFromBottom(offsetFromBottom);
+        keyboard.setSingleCanvas(true); // draw the keys on one canvas (fewer views, faster redraws)
         keyboard.invalidate();
+        keyboardPanel = keyboard;
 
         // default values (to avoid null pointer warning)
         keyboardLayout = keyboardLayout == null ? "Qwerty" : keyboardLayout;
@@ -629,6 +650,8 @@ public class SoftKeyboardActivity extends Activity implements OnKeystrokeListene
                 break;
         }
 
+        keyDistanceTable = keyboard.getKeyDistanceTable();
+
         LinearLayout keyboardContainer = (LinearLayout)findViewById(R.id.keyboardcontainer);
         keyboardContainer.setGravity(Gravity.BOTTOM);
 
@@ -693,11 +716,12 @@ public class SoftKeyboardActivity extends Activity implements OnKeystrokeListene
                     sessionCode, blockCode, groupCode, conditionCode, keyboardLayout, scaleString);
             f1 = new File(dataDirectory, baseFilename + ".sd1");
             f2 = new File(dataDirectory, baseFilename + ".sd2");
+            f3 = new File(dataDirectory, baseFilename + "-latency.csv");
 
             // also make a comma-delimited leader that will begin each data line written to the sd2 file
             sd2Leader = String.format("%s,%s,%s,%s,%s,%s,%s,%s", APP, participantCode, sessionCode,
                     blockCode, groupCode, conditionCode, keyboardLayout, scaleString);
-        } while (f1.exists() || f2.exists());
+        } while (f1.exists() || f2.exists() || f3.exists());
 
         try
         {
@@ -719,6 +743,9 @@ public class SoftKeyboardActivity extends Activity implements OnKeystrokeListene
 
         // initialized a buffer to hold the user's input
         transcribedBuffer = new StringBuilder();
+        msdTracker = new MSDTracker();
+        keystrokeAnalyzer = new KeystrokeAnalyzer();
+        wordDictionary = new TokenDictionary();
 
         // give focus transcribed text field so flashing I-beam appears
         transcribedText.requestFocus();
@@ -769,10 +796,14 @@ public class SoftKeyboardActivity extends Activity implements OnKeystrokeListene
                 if (transcribedBuffer.length() > 0)
                     transcribedBuffer.delete(transcribedBuffer.length() - 1, transcribedBuffer.length
                             ());
+                msdTracker.backspace();
+                keystrokeAnalyzer.backspace();
                 break;
 
             default: // just a character
                 transcribedBuffer.append((char)ke.charCode);
+                msdTracker.append(Character.toLowerCase((char)ke.charCode));
+                keystrokeAnalyzer.append(Character.toLowerCase((char)ke.charCode));
         }
 
         ++keystrokeCount;
@@ -810,6 +841,9 @@ public class SoftKeyboardActivity extends Activity implements OnKeystrokeListene
         presentedText.setText(presentedBuffer);
         transcribedBuffer.setLength(0);
         transcribedText.setText(transcribedBuffer);
+        msdTracker.reset(presentedBuffer.toLowerCase(Locale.getDefault()).trim());
+        keystrokeAnalyzer.reset(presentedBuffer.toLowerCase(Locale.getDefault()).trim());
+        presentedWords = wordDictionary.tokenize(presentedBuffer.toLowerCase(Locale.getDefault()));
 
         keystrokeCount = 0;
         samples.clear();
@@ -851,13 +885,31 @@ public class SoftKeyboardActivity extends Activity implements OnKeystrokeListene
         resultsString += String.format(Locale.CANADA, "Entry speed: %.2f wpm\n", d);
         sd2Data.append(String.format(Locale.CANADA, "%f,", d));
 
-        // output error rate for transcribed text
+        // output error rate for transcribed text (already computed, keystroke by keystroke)
         // MSD2 s1s2 = new MSD2(presentedPhrase, transcribedPhraseUncorrected);
-        MSD s1s2 = new MSD(presentedPhrase, transcribedPhrase);
-        d = (float)s1s2.getErrorRateNew();
+        d = (float)msdTracker.getErrorRateNew();
         resultsString += String.format(Locale.CANADA, "Error rate: %.2f%%\n", d);
         sd2Data.append(String.format(Locale.CANADA, "%f,", d));
 
+        // output word error rate (word-level MSD over the number of presented words)
+        d = 100f * MSDDistance.distance(presentedWords, wordDictionary.tokenize(transcribedPhrase), false)
+                / presentedWords.length;
+        resultsString += String.format(Locale.CANADA, "Word error rate: %.2f%%\n", d);
+        sd2Data.append(String.format(Locale.CANADA, "%f,", d));
+
+        // output total, corrected, and uncorrected error rates (from the input stream, including BACKSPACEs)
+        d = (float)keystrokeAnalyzer.getTotalErrorRate();
+        resultsString += String.format(Locale.CANADA, "Total error rate: %.2f%%\n", d);
+        sd2Data.append(String.format(Locale.CANADA, "%f,", d));
+        d = (float)keystrokeAnalyzer.getCorrectedErrorRate();
+        sd2Data.append(String.format(Locale.CANADA, "%f,", d));
+        d = (float)keystrokeAnalyzer.getUncorrectedErrorRate();
+        sd2Data.append(String.format(Locale.CANADA, "%f,", d));
+
+        // output weighted error rate (substitutions of neighbouring keys cost less than one error)
+        d = (float)WeightedMSD.getErrorRate(presentedPhrase, transcribedPhrase, keyDistanceTable);
+        sd2Data.append(String.format(Locale.CANADA, "%f,", d));
+
         // output KSPC (keystrokes per character)
         d = (float)keystrokeCount / transcribedPhrase.length();
         resultsString += String.format(Locale.CANADA, "KSPC: %.4f\n\n", d);
@@ -936,6 +988,16 @@ public class SoftKeyboardActivity extends Activity implements OnKeystrokeListene
             sd1.close();
             sd2.close();
 
+            // the latency histograms for the block
+            BufferedWriter sd3 = new BufferedWriter(new FileWriter(f3));
+            HapticsScheduler haptics = keyboardPanel.getHapticsScheduler();
+            String latencyData = keyboardPanel.getLatencyMonitor().toCSV() + String.format(Locale.CANADA,
+                    "\nRedraws,%d\nRedrawsAvoided,%d\nPulses,%d\nPulsesCoalesced,%d\nPulsesDropped,%d\n",
+                    keyboardPanel.getRedrawCount(), keyboardPanel.getRedrawsAvoidedCount(),
+                    haptics.getDeliveredCount(), haptics.getCoalescedCount(), haptics.getDroppedCount());
+            sd3.write(latencyData, 0, latencyData.length());
+            sd3.close();
+
 			/*
              * Make the saved data files visible in Windows Explorer. There seems to be bug doing
 			 * this with Android 4.4. I'm using the following code, instead of sendBroadcast.
@@ -944,7 +1006,7 @@ public class SoftKeyboardActivity extends Activity implements OnKeystrokeListene
 			 * http://code.google.com/p/android/issues/detail?id=38282
 			 */
             MediaScannerConnection.scanFile(this, new String[] {f1.getAbsolutePath(), f2
-                            .getAbsolutePath()}, null,
+                            .getAbsolutePath(), f3.getAbsolutePath()}, null,
                     null);
 
         } catch (IOException e)
@@ -1024,6 +1086,8 @@ public class SoftKeyboardActivity extends Activity implements OnKeystrokeListene
 
     @Override
     protected void onDestroy() {
+        if (keyboardPanel != null && keyboardPanel.getHapticsScheduler() != null)
+            keyboardPanel.getHapticsScheduler().shutdown();
         if(mediaPlayer.isPlaying()){
             mediaPlayer.stop();
         }
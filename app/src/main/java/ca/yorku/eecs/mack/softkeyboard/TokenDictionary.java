@@ -0,0 +1,94 @@
+package ca.yorku.eecs.mack.softkeyboard;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+
+/**
+ * TokenDictionary - interns words as small integer ids, for the word-level MSD.
+ * <p>
+ *
+ * Comparing words as Strings costs a call to <code>String.equals</code> in every cell of the MSD matrix. Interning the
+ * words of a corpus (e.g., a phrases file) once, into a dictionary shared by all the phrases, reduces each phrase to
+ * an <code>int[]</code>. Two words are equal if and only if their ids are equal, so the word-level MSD can be computed
+ * with <code>MSDDistance.distance(int[], int[], boolean)</code> or with an <code>MSD2.TokenArrayCollection</code>, at
+ * about the cost of the character-level MSD.
+ * <p>
+ *
+ * Ids are assigned in the order words are first seen, starting at 0. The methods are synchronized, so a dictionary may
+ * be shared by threads scoring phrases in parallel.
+ */
+public class TokenDictionary
+{
+	private final HashMap<String, Integer> ids = new HashMap<String, Integer>();
+	private final ArrayList<String> words = new ArrayList<String>();
+
+	/**
+	 * Return the id of a word, adding the word to the dictionary if necessary.
+	 */
+	public synchronized int intern(String word)
+	{
+		Integer id = ids.get(word);
+		if (id == null)
+		{
+			id = words.size();
+			ids.put(word, id);
+			words.add(word);
+		}
+		return id;
+	}
+
+	/**
+	 * Return the word with an id.
+	 */
+	public synchronized String getWord(int id)
+	{
+		return words.get(id);
+	}
+
+	/**
+	 * Return the number of distinct words in the dictionary.
+	 */
+	public synchronized int size()
+	{
+		return words.size();
+	}
+
+	/**
+	 * Split a phrase into words (separated by whitespace), and return the ids of the words.
+	 */
+	public synchronized int[] tokenize(String phrase)
+	{
+		int[] tokens = new int[countWords(phrase)];
+		int n = 0;
+		int length = phrase.length();
+		int i = 0;
+		while (i < length)
+		{
+			while (i < length && phrase.charAt(i) <= ' ')
+				++i;
+			int start = i;
+			while (i < length && phrase.charAt(i) > ' ')
+				++i;
+			if (i > start)
+				tokens[n++] = intern(phrase.substring(start, i));
+		}
+		return tokens;
+	}
+
+	/**
+	 * Return the number of words (separated by whitespace) in a phrase.
+	 */
+	public static int countWords(String phrase)
+	{
+		int n = 0;
+		boolean inWord = false;
+		for (int i = 0; i < phrase.length(); ++i)
+		{
+			boolean space = phrase.charAt(i) <= ' ';
+			if (!space && !inWord)
+				++n;
+			inWord = !space;
+		}
+		return n;
+	}
+}
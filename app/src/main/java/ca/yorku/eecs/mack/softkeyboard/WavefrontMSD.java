@@ -0,0 +1,292 @@
+package ca.yorku.eecs.mack.softkeyboard;
+
+import java.util.ArrayList;
+import java.util.Random;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+
+/**
+ * WavefrontMSD - a parallel computation of the MSD of very long texts (e.g., the concatenated transcript of a block).
+ * <p>
+ *
+ * The D matrix is divided into square tiles (256 x 256 cells by default, so a tile's working storage fits in the
+ * cache). A tile can be computed once the tile above it, the tile to its left, and the tile above-left are done, so the
+ * tiles along each anti-diagonal (a "wavefront") are independent, and they are computed in parallel on a
+ * <code>ForkJoinPool</code>. With n/256 x m/256 tiles, the wavefronts soon hold more tiles than there are cores.
+ * <p>
+ *
+ * Tiles exchange only their boundaries: each tile keeps its last two rows and last two columns (two, for the
+ * transposition variant, which looks back two rows and columns) in primitive arrays. The boundaries of a wavefront are
+ * dropped once the wavefront two steps later is done, so memory is O(n + m), not O(nm). The cells of a tile are
+ * computed in a per-thread scratch array.
+ * <p>
+ *
+ * The values are the same as <code>MSDDistance.distance</code> (or <code>MSD2.getMSD()</code>). For a single core,
+ * the bit-vector algorithm in <code>MSDDistance</code> is faster; this class is for spreading one very long comparison
+ * across the cores of an analysis machine. It requires Android API 21 or later (for <code>ForkJoinPool</code>). Run
+ * from the command line, it checks itself against <code>MSDDistance</code> and prints the timings.
+ */
+public class WavefrontMSD
+{
+	public static final int DEFAULT_TILE_SIZE = 256;
+	private static final int INFINITY = MSD2.MSDCollection.Infinity;
+
+	private static ForkJoinPool pool;
+
+	private static final ThreadLocal<int[][]> SCRATCH = new ThreadLocal<int[][]>()
+	{
+		@Override
+		protected int[][] initialValue()
+		{
+			return new int[1][];
+		}
+	};
+
+	private final char[] p, t;
+	private final boolean transpositions;
+	private final int size; // tile size
+	private final int tileRows, tileColumns;
+	private final int[][][] bottom; // [r][c] = the last two rows of tile (r, c), one after the other
+	private final int[][][] right; // [r][c] = the last two columns of tile (r, c), one after the other
+
+	private WavefrontMSD(String presented, String transcribed, boolean transpositionsArg, int sizeArg)
+	{
+		p = presented.toCharArray();
+		t = transcribed.toCharArray();
+		transpositions = transpositionsArg;
+		size = sizeArg;
+		tileRows = (p.length + size - 1) / size;
+		tileColumns = (t.length + size - 1) / size;
+		bottom = new int[tileRows][tileColumns][];
+		right = new int[tileRows][tileColumns][];
+	}
+
+	/**
+	 * Return the minimum string distance between two texts, with the default tile size.
+	 *
+	 * @param presented
+	 *            the presented text
+	 * @param transcribed
+	 *            the transcribed text
+	 * @param transpositions
+	 *            if true, the transposition of two neighbouring characters is treated as a single edit
+	 */
+	public static int distance(String presented, String transcribed, boolean transpositions)
+	{
+		return distance(presented, transcribed, transpositions, DEFAULT_TILE_SIZE);
+	}
+
+	/**
+	 * Return the minimum string distance between two texts.
+	 *
+	 * @param tileSize
+	 *            the height and width of the tiles (at least 2)
+	 */
+	public static int distance(String presented, String transcribed, boolean transpositions, int tileSize)
+	{
+		if (tileSize < 2)
+			throw new IllegalArgumentException("tile size must be at least 2: " + tileSize);
+		if (presented.length() == 0 || transcribed.length() == 0)
+			return Math.max(presented.length(), transcribed.length());
+		return new WavefrontMSD(presented, transcribed, transpositions, tileSize).run();
+	}
+
+	private static synchronized ForkJoinPool getPool()
+	{
+		if (pool == null)
+			pool = new ForkJoinPool();
+		return pool;
+	}
+
+	private int run()
+	{
+		ForkJoinPool fjp = getPool();
+		ArrayList<TileTask> wave = new ArrayList<TileTask>();
+		for (int d = 0; d < tileRows + tileColumns - 1; ++d)
+		{
+			wave.clear();
+			for (int r = Math.max(0, d - tileColumns + 1); r <= Math.min(d, tileRows - 1); ++r)
+				wave.add(new TileTask(r, d - r));
+			if (wave.size() == 1)
+				wave.get(0).compute();
+			else
+				fjp.invoke(new WaveTask(wave));
+
+			// the boundaries of wave d - 2 are no longer needed
+			int old = d - 2;
+			for (int r = Math.max(0, old - tileColumns + 1); old >= 0 && r <= Math.min(old, tileRows - 1); ++r)
+			{
+				bottom[r][old - r] = null;
+				right[r][old - r] = null;
+			}
+		}
+		int[] last = bottom[tileRows - 1][tileColumns - 1];
+		return last[last.length - 1];
+	}
+
+	private static final class WaveTask extends RecursiveAction
+	{
+		private static final long serialVersionUID = 1L;
+		private final ArrayList<TileTask> tiles;
+
+		WaveTask(ArrayList<TileTask> tilesArg)
+		{
+			tiles = tilesArg;
+		}
+
+		@Override
+		protected void compute()
+		{
+			invokeAll(tiles);
+		}
+	}
+
+	private final class TileTask extends RecursiveAction
+	{
+		private static final long serialVersionUID = 1L;
+		private final int r, c;
+
+		TileTask(int rArg, int cArg)
+		{
+			r = rArg;
+			c = cArg;
+		}
+
+		@Override
+		protected void compute()
+		{
+			computeTile(r, c);
+		}
+	}
+
+	/*
+	 * Compute tile (r, c): D[i][j] for i in (r0, r1] and j in (c0, c1]. The scratch array holds rows r0 - 1 .. r1 and
+	 * columns c0 - 1 .. c1 of the D matrix; cell (i, j) is at (i - r0 + 1) * stride + (j - c0 + 1).
+	 */
+	private void computeTile(int r, int c)
+	{
+		int r0 = r * size;
+		int r1 = Math.min(r0 + size, p.length);
+		int c0 = c * size;
+		int c1 = Math.min(c0 + size, t.length);
+		int h = r1 - r0;
+		int w = c1 - c0;
+		int stride = w + 2;
+
+		int[][] holder = SCRATCH.get();
+		if (holder[0] == null || holder[0].length < (h + 2) * stride)
+			holder[0] = new int[(size + 2) * (size + 2)];
+		int[] s = holder[0];
+
+		// the two rows above the tile (including the two columns to its left)
+		for (int a = 0; a < 2; ++a)
+			for (int j = c0 - 1; j <= c1; ++j)
+				s[(1 - a) * stride + (j - c0 + 1)] = boundary(r0 - a, j, r, c);
+
+		// the two columns to the left of the tile
+		for (int i = r0 + 1; i <= r1; ++i)
+			for (int b = 0; b < 2; ++b)
+				s[(i - r0 + 1) * stride + (1 - b)] = boundary(i, c0 - b, r, c);
+
+		for (int i = r0 + 1; i <= r1; ++i)
+		{
+			int row = (i - r0 + 1) * stride;
+			char pc = p[i - 1];
+			for (int j = c0 + 1; j <= c1; ++j)
+			{
+				int cell = row + (j - c0 + 1);
+				int m = Math.min(s[cell - stride] + 1, s[cell - 1] + 1);
+				m = Math.min(m, s[cell - stride - 1] + (pc == t[j - 1] ? 0 : 1));
+				if (transpositions && i >= 2 && j >= 2 && pc == t[j - 2] && p[i - 2] == t[j - 1])
+					m = Math.min(m, s[cell - 2 * stride - 2] + 1);
+				s[cell] = m;
+			}
+		}
+
+		int[] lastRows = new int[2 * w];
+		for (int a = 0; a < 2; ++a)
+			System.arraycopy(s, (h + a) * stride + 2, lastRows, a * w, w);
+		int[] lastColumns = new int[2 * h];
+		for (int i = 0; i < h; ++i)
+		{
+			lastColumns[i] = s[(i + 2) * stride + w];
+			lastColumns[h + i] = s[(i + 2) * stride + w + 1];
+		}
+		bottom[r][c] = lastRows;
+		right[r][c] = lastColumns;
+	}
+
+	/*
+	 * Return D[i][j], where (i, j) is on the boundary of tile (r, c) (in one of the two rows above it, or one of the
+	 * two columns to its left). Only the last tile row and column can be short, so the rows above a tile and the
+	 * columns to its left lie in the neighbouring tiles.
+	 */
+	private int boundary(int i, int j, int r, int c)
+	{
+		if (i < 0 || j < 0)
+			return INFINITY;
+		if (i == 0)
+			return j;
+		if (j == 0)
+			return i;
+
+		int tr = (i - 1) / size;
+		int tc = (j - 1) / size;
+		int ti1 = Math.min(tr * size + size, p.length);
+		int tj1 = Math.min(tc * size + size, t.length);
+		if (tr < r) // in the last two rows of the tile above (or above-left)
+		{
+			int[] rows = bottom[tr][tc];
+			int w = tj1 - tc * size;
+			return rows[(i == ti1 ? w : 0) + (j - tc * size - 1)];
+		}
+		// in the last two columns of the tile to the left
+		int[] columns = right[tr][tc];
+		int h = ti1 - tr * size;
+		return columns[(j == tj1 ? h : 0) + (i - tr * size - 1)];
+	}
+
+	// =======================================================================================================
+
+	public static void main(String[] args)
+	{
+		Random r = new Random(13);
+		int failures = 0;
+		for (int trial = 0; trial < 3000; ++trial)
+		{
+			String a = randomText(r, r.nextInt(40));
+			String b = randomText(r, r.nextInt(40));
+			boolean transpose = r.nextBoolean();
+			int tile = 2 + r.nextInt(6);
+			if (distance(a, b, transpose, tile) != MSDDistance.distance(a, b, transpose))
+			{
+				System.out.println("FAIL: \"" + a + "\" \"" + b + "\" tile " + tile + " " + transpose);
+				++failures;
+			}
+		}
+		System.out.println(failures == 0 ? "OK" : failures + " failures");
+
+		int n = args.length > 0 ? Integer.parseInt(args[0]) : 20000;
+		String a = randomText(r, n);
+		String b = randomText(r, n);
+		for (int k = 0; k < 3; ++k)
+		{
+			long start = System.nanoTime();
+			int d1 = distance(a, b, true);
+			long wavefront = System.nanoTime() - start;
+			start = System.nanoTime();
+			int d2 = MSDDistance.distance(a, b, true);
+			long bitVector = System.nanoTime() - start;
+			System.out.printf("n = m = %d: wavefront %d (%.1f ms), bit-vector %d (%.1f ms), %d cores\n", n, d1,
+					wavefront / 1e6, d2, bitVector / 1e6, Runtime.getRuntime().availableProcessors());
+		}
+	}
+
+	private static String randomText(Random r, int length)
+	{
+		char[] c = new char[length];
+		for (int i = 0; i < length; ++i)
+			c[i] = "abc".charAt(r.nextInt(3));
+		return new String(c);
+	}
+}
@@ -0,0 +1,155 @@
+package ca.yorku.eecs.mack.softkeyboard;
+
+import java.util.Random;
+
+/**
+ * WeightedMSD - a minimum string distance where the cost of a substitution depends on the distance between the keys.
+ * <p>
+ *
+ * In the MSD, every substitution costs one edit. Here, substituting a character for its neighbour on the keyboard (a
+ * "fat-finger" error) costs less than substituting a character on the far side of the keyboard (more likely a
+ * cognitive or spelling error). The costs come from a <code>KeyDistanceTable</code> for the layout; insertions and
+ * deletions still cost one edit. Comparing the weighted MSD with the MSD shows how much of the error is due to
+ * neighbouring keys.
+ * <p>
+ *
+ * The dynamic programming keeps two rows of <code>int</code> costs (in units of 1/<code>KeyDistanceTable.SCALE</code>
+ * edit), and the substitution cost is one lookup in a flat table, so the cost per cell is the same as for the 0/1 MSD.
+ * Run from the command line, the weighted and 0/1 versions are timed against each other (a simple warm-up-and-repeat
+ * benchmark).
+ */
+public final class WeightedMSD
+{
+	private WeightedMSD()
+	{
+	}
+
+	/**
+	 * Return the weighted minimum string distance between two strings, in edits.
+	 */
+	public static double distance(String presented, String transcribed, KeyDistanceTable table)
+	{
+		return (double)scaledDistance(presented, transcribed, table) / KeyDistanceTable.SCALE;
+	}
+
+	/**
+	 * Return the weighted error rate (%), computed using the larger of the lengths of the presented and transcribed
+	 * text (as in <code>MSD.getErrorRate()</code>).
+	 */
+	public static double getErrorRate(String presented, String transcribed, KeyDistanceTable table)
+	{
+		return distance(presented, transcribed, table) / Math.max(presented.length(), transcribed.length()) * 100.0;
+	}
+
+	/*
+	 * The weighted distance in units of 1/SCALE edit.
+	 */
+	static int scaledDistance(String presented, String transcribed, KeyDistanceTable table)
+	{
+		final int unit = KeyDistanceTable.SCALE;
+		final int size = KeyDistanceTable.SIZE;
+		int[] costs = table.costs;
+
+		int m = transcribed.length();
+		int[] previous = new int[m + 1];
+		int[] current = new int[m + 1];
+		for (int j = 0; j <= m; ++j)
+			previous[j] = j * unit;
+
+		for (int i = 1; i <= presented.length(); ++i)
+		{
+			char a = presented.charAt(i - 1);
+			current[0] = i * unit;
+			for (int j = 1; j <= m; ++j)
+			{
+				char b = transcribed.charAt(j - 1);
+				int substitute = a < size && b < size ? costs[a * size + b] : a == b ? 0 : unit;
+				int v = Math.min(previous[j] + unit, current[j - 1] + unit);
+				current[j] = Math.min(v, previous[j - 1] + substitute);
+			}
+			int[] t = previous;
+			previous = current;
+			current = t;
+		}
+		return previous[m];
+	}
+
+	/*
+	 * The same loop with 0/1 substitution costs, for the benchmark.
+	 */
+	static int unweightedDistance(String presented, String transcribed)
+	{
+		int m = transcribed.length();
+		int[] previous = new int[m + 1];
+		int[] current = new int[m + 1];
+		for (int j = 0; j <= m; ++j)
+			previous[j] = j;
+
+		for (int i = 1; i <= presented.length(); ++i)
+		{
+			char a = presented.charAt(i - 1);
+			current[0] = i;
+			for (int j = 1; j <= m; ++j)
+			{
+				int v = Math.min(previous[j] + 1, current[j - 1] + 1);
+				current[j] = Math.min(v, previous[j - 1] + (a == transcribed.charAt(j - 1) ? 0 : 1));
+			}
+			int[] t = previous;
+			previous = current;
+			current = t;
+		}
+		return previous[m];
+	}
+
+	// =======================================================================================================
+
+	/*
+	 * Benchmark: java WeightedMSD [layout.xml]
+	 */
+	public static void main(String[] args) throws java.io.IOException
+	{
+		KeyDistanceTable table = args.length > 0 ? KeyDistanceTable.fromResourceFile(args[0]) : KeyDistanceTable
+				.fromLayout(new String[] {"40, 40", "Q, 0, 0, 1, 1", "W, 1, 0, 1, 1", "E, 2, 0, 1, 1",
+						"A, 0, 1, 1, 1", "S, 1, 1, 1, 1", "D, 2, 1, 1, 1", "Space, 0, 2, 3, 1"});
+
+		// phrase-length pairs with a few errors, as in a study
+		Random r = new Random(16);
+		int pairs = 2000;
+		String[] presented = new String[pairs];
+		String[] transcribed = new String[pairs];
+		String letters = "abcdefghijklmnopqrstuvwxyz     ";
+		for (int k = 0; k < pairs; ++k)
+		{
+			char[] c = new char[25 + r.nextInt(15)];
+			for (int i = 0; i < c.length; ++i)
+				c[i] = letters.charAt(r.nextInt(letters.length()));
+			presented[k] = new String(c);
+			for (int e = r.nextInt(4); e > 0; --e)
+				c[r.nextInt(c.length)] = letters.charAt(r.nextInt(letters.length()));
+			transcribed[k] = new String(c);
+		}
+
+		System.out.println("pair: \"qwe\" vs \"qwd\" = " + distance("qwe", "qwd", table) + " (0/1 MSD = "
+				+ unweightedDistance("qwe", "qwd") + ")");
+
+		long sink = 0;
+		for (int round = 0; round < 10; ++round)
+		{
+			long start = System.nanoTime();
+			for (int k = 0; k < pairs; ++k)
+				sink += scaledDistance(presented[k], transcribed[k], table);
+			long weighted = System.nanoTime() - start;
+
+			start = System.nanoTime();
+			for (int k = 0; k < pairs; ++k)
+				sink += unweightedDistance(presented[k], transcribed[k]);
+			long unweighted = System.nanoTime() - start;
+
+			if (round >= 5) // the first rounds are warm-up
+				System.out.printf("weighted %.1f us/pair, 0/1 %.1f us/pair\n", weighted / 1e3 / pairs, unweighted
+						/ 1e3 / pairs);
+		}
+		if (sink == 42)
+			System.out.println(); // keep the results live
+	}
+}